@@ -0,0 +1,74 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sonatype.matrix.smoothie;
+
+import org.sonatype.guice.bean.locators.QualifiedBean;
+
+import java.lang.annotation.Annotation;
+import java.util.List;
+
+/**
+ * Live view of the components located for a key.
+ *
+ * Kept up to date as plugins are registered, so consumers need not locate again to see components of later plugins.
+ *
+ * @author <a href="mailto:jason@planet57.com">Jason Dillon</a>
+ * @since 1.1
+ */
+public interface BeanView<Q extends Annotation, T>
+    extends Iterable<QualifiedBean<Q,T>>
+{
+    /**
+     * Returns the current components; an immutable snapshot.
+     */
+    List<QualifiedBean<Q,T>> getBeans();
+
+    /**
+     * Add a listener, which is told about components added from now on.
+     */
+    void addListener(Listener<Q,T> listener);
+
+    void removeListener(Listener<Q,T> listener);
+
+    /**
+     * Notified when the components of a view change.
+     *
+     * Called from the thread registering the plugin, so listeners should be quick.
+     */
+    interface Listener<Q extends Annotation, T>
+    {
+        /**
+         * Components were added to the view.
+         */
+        void added(BeanView<Q,T> view, List<QualifiedBean<Q,T>> beans);
+
+        /**
+         * The view may have components which it has not located yet; ie. a plugin which may provide them has been
+         * deferred.  They are located, activating the plugin, on the next read of the view; consumers caching what
+         * they read must read again.  Listeners must not read the view themselves.
+         */
+        void invalidated(BeanView<Q,T> view);
+    }
+}
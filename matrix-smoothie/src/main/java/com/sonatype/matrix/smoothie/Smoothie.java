@@ -24,6 +24,7 @@
 
 package com.sonatype.matrix.smoothie;
 
+import com.sonatype.matrix.smoothie.internal.ClassCache;
 import com.sonatype.matrix.smoothie.internal.SmoothieContainerBootstrap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,7 +39,19 @@ public class Smoothie
 {
     private static final Logger log = LoggerFactory.getLogger(Smoothie.class);
 
-    private static SmoothieContainer container;
+    /**
+     * Safely published by being volatile; once set, getting the container is a single volatile read.
+     */
+    private static volatile SmoothieContainer container;
+
+    private static final ClassCache<Double> priorities = new ClassCache<Double>()
+    {
+        @Override
+        protected Double computeValue(final Class<?> type) {
+            Priority priority = type.getAnnotation(Priority.class);
+            return priority != null ? priority.value() : 0d;
+        }
+    };
 
     /**
      * Set the container singleton.
@@ -64,7 +77,15 @@ public class Smoothie
      *
      * @return  The container instance; never null
      */
-    public static synchronized SmoothieContainer getContainer() {
+    public static SmoothieContainer getContainer() {
+        SmoothieContainer instance = container;
+        if (instance == null) {
+            instance = bootstrap();
+        }
+        return instance;
+    }
+
+    private static synchronized SmoothieContainer bootstrap() {
         if (container == null) {
             // This should really be done by a ServletContextListener when the webapp loads, but for now we are not modifying hudson-core, so bootstrap the container here.
             return new SmoothieContainerBootstrap().bootstrap();
@@ -77,13 +98,16 @@ public class Smoothie
      */
     public static <T> double priorityOf(final T component) {
         assert component != null;
+        return priorityOf(component.getClass());
+    }
 
-        double value = 0;
-        Priority priority = component.getClass().getAnnotation(Priority.class);
-        if (priority != null) {
-            value = priority.value();
-        }
-
-        return value;
+    /**
+     * Determine the priority of components of the given type.
+     *
+     * @since 1.1
+     */
+    public static double priorityOf(final Class<?> type) {
+        assert type != null;
+        return priorities.get(type);
     }
 }
\ No newline at end of file
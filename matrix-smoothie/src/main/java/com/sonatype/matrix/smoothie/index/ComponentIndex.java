@@ -0,0 +1,79 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sonatype.matrix.smoothie.index;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Build-time index of the component classes in a jar.
+ *
+ * The index is a UTF-8 text resource at {@link #LOCATION} listing one binary class name per line.
+ * Blank lines and lines starting with {@code #} are ignored.
+ *
+ * @author <a href="mailto:jason@planet57.com">Jason Dillon</a>
+ * @since 1.1
+ * @see ComponentIndexProcessor
+ */
+public class ComponentIndex
+{
+    public static final String LOCATION = "META-INF/smoothie/components";
+
+    private static final String ENCODING = "UTF-8";
+
+    public static Set<String> read(final InputStream input) throws IOException {
+        assert input != null;
+        Set<String> names = new TreeSet<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, ENCODING));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.length() != 0 && !line.startsWith("#")) {
+                names.add(line);
+            }
+        }
+        return names;
+    }
+
+    public static void write(final OutputStream output, final Collection<String> names) throws IOException {
+        assert output != null;
+        assert names != null;
+        Writer writer = new OutputStreamWriter(output, ENCODING);
+        writer.write("# Generated by " + ComponentIndexProcessor.class.getName() + "\n");
+        for (String name : new TreeSet<String>(names)) {
+            writer.write(name);
+            writer.write('\n');
+        }
+        writer.flush();
+    }
+}
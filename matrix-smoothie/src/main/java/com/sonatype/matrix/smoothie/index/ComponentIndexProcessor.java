@@ -0,0 +1,146 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sonatype.matrix.smoothie.index;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Annotation processor which generates the {@link ComponentIndex} for the classes being compiled.
+ *
+ * Registered via {@code META-INF/services}, so any plugin compiled with {@code matrix-smoothie} on its classpath
+ * gets an index of its {@code @Named}, {@code @Singleton} and {@code @Typed} classes, and of classes with custom
+ * {@link javax.inject.Qualifier qualifiers}, allowing Smoothie to skip scanning the plugin at runtime.
+ *
+ * Custom qualifiers can not be listed up front, so all annotations are processed; they are never claimed.
+ *
+ * @author <a href="mailto:jason@planet57.com">Jason Dillon</a>
+ * @since 1.1
+ */
+@SupportedAnnotationTypes("*")
+public class ComponentIndexProcessor
+    extends AbstractProcessor
+{
+    /**
+     * Annotations marking components, besides qualifiers.
+     */
+    private static final Set<String> COMPONENT_ANNOTATIONS = new HashSet<String>(Arrays.asList(
+        "javax.inject.Named",
+        "javax.inject.Singleton",
+        "javax.enterprise.inject.Typed",
+        "org.sonatype.inject.EagerSingleton"
+    ));
+
+    private static final String QUALIFIER = "javax.inject.Qualifier";
+
+    private final Set<String> names = new TreeSet<String>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment round) {
+        for (TypeElement annotation : annotations) {
+            if (!isComponentAnnotation(annotation)) {
+                continue;
+            }
+            for (Element element : round.getElementsAnnotatedWith(annotation)) {
+                // Only concrete classes are components, @Named is also used on parameters
+                if (element.getKind() == ElementKind.CLASS) {
+                    names.add(processingEnv.getElementUtils().getBinaryName((TypeElement) element).toString());
+                }
+            }
+        }
+
+        if (round.processingOver() && !names.isEmpty()) {
+            write();
+        }
+
+        // Never claim the annotations, other processors may want them
+        return false;
+    }
+
+    private static boolean isComponentAnnotation(final TypeElement annotation) {
+        if (COMPONENT_ANNOTATIONS.contains(annotation.getQualifiedName().toString())) {
+            return true;
+        }
+        for (AnnotationMirror mirror : annotation.getAnnotationMirrors()) {
+            TypeElement type = (TypeElement) mirror.getAnnotationType().asElement();
+            if (QUALIFIER.equals(type.getQualifiedName().toString())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void write() {
+        // Merge with any existing index so incremental compiles do not drop entries; stale names are ignored at runtime
+        try {
+            FileObject existing = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", ComponentIndex.LOCATION);
+            InputStream input = existing.openInputStream();
+            try {
+                names.addAll(ComponentIndex.read(input));
+            }
+            finally {
+                input.close();
+            }
+        }
+        catch (IOException e) {
+            // ignore, no previous index
+        }
+
+        try {
+            FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", ComponentIndex.LOCATION);
+            OutputStream output = file.openOutputStream();
+            try {
+                ComponentIndex.write(output, names);
+            }
+            finally {
+                output.close();
+            }
+        }
+        catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Failed to write component index: " + e);
+        }
+    }
+}
@@ -27,6 +27,8 @@ package com.sonatype.matrix.smoothie.injecto;
 import com.google.inject.ImplementedBy;
 import com.sonatype.matrix.smoothie.injecto.internal.InjectomaticImpl;
 
+import java.util.Collection;
+
 /**
  * Magically injection system.
  *
@@ -50,4 +52,21 @@ public interface Injectomatic
      * Perform injection on the given component.
      */
     void inject(Object component);
+
+    /**
+     * Perform injection on all the given components; components of the same class are injected together.
+     *
+     * @since 1.1
+     */
+    void injectAll(Collection<?> components);
+
+    /**
+     * Create an instance of the given type with the most specific public constructor accepting the given arguments,
+     * and inject it if its type is injectable.
+     *
+     * Does the work of the aspect for the instance, so types created this way need not be woven.
+     *
+     * @since 1.1
+     */
+    <T> T create(Class<T> type, Object... args);
 }
\ No newline at end of file
@@ -42,7 +42,7 @@ public class InjectomaticAspectHelper
 {
     private static final Logger log = LoggerFactory.getLogger(InjectomaticAspectHelper.class);
 
-    private static boolean enabled = false;
+    private static volatile boolean enabled = false;
 
     public static boolean isEnabled() {
         return enabled;
@@ -53,13 +53,73 @@ public class InjectomaticAspectHelper
         log.debug("Aspect-based injection {}", flag ? "enabled" : "disabled");
     }
 
-    private static Injectomatic injecto;
+    /**
+     * Safely published by being volatile; resolving it more than once under a race is harmless, as it is a singleton.
+     */
+    private static volatile Injectomatic injecto;
 
     private static Injectomatic getInjectomatic() {
-        if (injecto == null) {
-            injecto = Smoothie.getContainer().get(Key.get(Injectomatic.class));
+        Injectomatic instance = injecto;
+        if (instance == null) {
+            instance = Smoothie.getContainer().get(Key.get(Injectomatic.class));
+            injecto = instance;
+        }
+        return instance;
+    }
+
+    /**
+     * Creation in progress by {@link Injectomatic#create} on this thread, which injects the instance itself.
+     */
+    private static final ThreadLocal<Creation> creating = new ThreadLocal<Creation>();
+
+    /**
+     * Type being created, and the outermost instance of it under construction once its initialization starts.
+     */
+    static class Creation
+    {
+        private final Class<?> type;
+
+        private Object target;
+
+        private Creation(final Class<?> type) {
+            this.type = type;
+        }
+    }
+
+    /**
+     * Mark the given type as being created on this thread.
+     *
+     * @return  The creation previously in progress, to pass to {@link #endCreate}.
+     */
+    static Creation beginCreate(final Class<?> type) {
+        Creation previous = creating.get();
+        creating.set(new Creation(type));
+        return previous;
+    }
+
+    static void endCreate(final Creation previous) {
+        if (previous == null) {
+            creating.remove();
+        }
+        else {
+            creating.set(previous);
+        }
+    }
+
+    // Used by aspect
+    static boolean isCreating() {
+        return creating.get() != null;
+    }
+
+    // Used by aspect
+    static void initializing(final Object object) {
+        assert object != null;
+
+        // The first instance of the type to start initializing is the one being created, any others are built by it
+        Creation creation = creating.get();
+        if (creation != null && creation.target == null && object.getClass() == creation.type) {
+            creation.target = object;
         }
-        return injecto;
     }
 
     // Used by aspect
@@ -71,6 +131,12 @@ public class InjectomaticAspectHelper
             return;
         }
 
+        // Injected by Injectomatic.create() once constructed
+        Creation creation = creating.get();
+        if (creation != null && creation.target == object) {
+            return;
+        }
+
         getInjectomatic().inject(object);
     }
 
@@ -25,6 +25,8 @@
 package com.sonatype.matrix.smoothie.injecto.internal;
 
 import com.google.inject.Injector;
+import com.google.inject.MembersInjector;
+import com.sonatype.matrix.smoothie.internal.ClassCache;
 import com.sonatype.matrix.smoothie.internal.OID;
 import com.sonatype.matrix.smoothie.SmoothieContainer;
 import com.sonatype.matrix.smoothie.injecto.Injectable;
@@ -37,12 +39,24 @@ import org.slf4j.LoggerFactory;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
-import java.util.HashSet;
-import java.util.Set;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Default {@link com.sonatype.matrix.smoothie.injecto.Injectomatic} implementation.
  *
+ * Whether a type is injectable, and the members injector used for it, are cached per class without locking, and
+ * without keeping plugin classes alive.
+ *
  * @author <a href="mailto:jason@planet57.com">Jason Dillon</a>
  * @since 0.2
  */
@@ -55,15 +69,38 @@ public class InjectomaticImpl
 
     private final SmoothieContainer container;
 
-    //
-    // FIXME: Probably need to make these guys thread-safe, but not synchronized to avoid perf cost
-    //
+    /**
+     * Registered types; weakly referenced so plugin types do not pin their class-loader.
+     */
+    private final List<WeakReference<Class>> registered = new CopyOnWriteArrayList<WeakReference<Class>>();
 
-    private final Set<Class> registered = new HashSet<Class>();
+    /**
+     * Injectable classification of types, against a snapshot of the registered types.  Replaced when a type is
+     * registered, so classifications computed against an older snapshot are discarded with it.
+     */
+    private volatile ClassCache<Boolean> classifier = newClassifier();
 
-    private final Set<Class> injectable = new HashSet<Class>();
+    /**
+     * Members injectors, by class, from the injector of the plugin which loaded the class.
+     */
+    private final ClassCache<Plan> plans = new ClassCache<Plan>()
+    {
+        @Override
+        protected Plan computeValue(final Class<?> type) {
+            return new Plan(injectorFor(type).getMembersInjector(type));
+        }
+    };
 
-    private final Set<Class> nonInjectable = new HashSet<Class>();
+    /**
+     * Constructors, by class; softly referenced, as they reference the class.
+     */
+    private final ClassCache<Constructors> constructors = new ClassCache<Constructors>()
+    {
+        @Override
+        protected Constructors computeValue(final Class<?> type) {
+            return new Constructors(type);
+        }
+    };
 
     @Inject
     public InjectomaticImpl(final SmoothieContainer container) {
@@ -72,66 +109,289 @@ public class InjectomaticImpl
         register(Injectable.class);
     }
 
-    public void register(final Class type) {
+    public synchronized void register(final Class type) {
         assert type != null;
 
+        for (WeakReference<Class> ref : registered) {
+            if (ref.get() == type) {
+                return;
+            }
+        }
+
         log.debug("Registering type: {}", type);
-        
-        registered.add(type);
+
+        registered.add(new WeakReference<Class>(type));
+        classifier = newClassifier();
+    }
+
+    private ClassCache<Boolean> newClassifier() {
+        final List<WeakReference<Class>> types = new ArrayList<WeakReference<Class>>(registered);
+
+        return new ClassCache<Boolean>()
+        {
+            @Override
+            @SuppressWarnings({"unchecked"})
+            protected Boolean computeValue(final Class<?> type) {
+                // See if the type is assignable from a registered type
+                for (WeakReference<Class> ref : types) {
+                    Class rtype = ref.get();
+                    if (rtype != null && rtype.isAssignableFrom(type)) {
+                        log.trace("Detected injectable type: {}", type);
+                        return Boolean.TRUE;
+                    }
+                }
+                return Boolean.FALSE;
+            }
+        };
     }
 
     public boolean isInjectable(final Class type) {
         assert type != null;
+        return classifier.get(type);
+    }
 
-        // See if we have already cached if this type is injectable or not
-        if (injectable.contains(type)) {
-            return true;
+    public void inject(final Object component) {
+        assert component != null;
+
+        Class type = component.getClass();
+
+        if (!isInjectable(type)) {
+            log.trace("Type not injectable; skipping: {}", type);
+            return;
         }
-        else if (nonInjectable.contains(type)) {
-            return false;
+
+        if (log.isTraceEnabled()) {
+            log.trace("Injecting: {} ({})", component, OID.get(component));
         }
 
-        // See if the type is assignable from a registered type
-        for (Class rtype : registered) {
-            if (rtype.isAssignableFrom(type)) {
-                // Add to injectable type cache
-                injectable.add(type);
-                log.trace("Detected injectable type: {}", type);
-                return true;
+        membersInjector(type).injectMembers(component);
+    }
+
+    public void injectAll(final Collection<?> components) {
+        assert components != null;
+
+        // Group by class, which also groups by injector, so each is resolved once
+        Map<Class<?>,List<Object>> groups = new LinkedHashMap<Class<?>,List<Object>>();
+        for (Object component : components) {
+            assert component != null;
+            List<Object> group = groups.get(component.getClass());
+            if (group == null) {
+                group = new ArrayList<Object>();
+                groups.put(component.getClass(), group);
             }
+            group.add(component);
         }
 
-        // Not injectable; add to cache
-        nonInjectable.add(type);
+        for (Map.Entry<Class<?>,List<Object>> entry : groups.entrySet()) {
+            Class<?> type = entry.getKey();
+            List<Object> group = entry.getValue();
+
+            if (!isInjectable(type)) {
+                log.trace("Type not injectable; skipping: {}", type);
+                continue;
+            }
 
-        return false;
+            log.trace("Injecting {} instances of: {}", group.size(), type);
+
+            MembersInjector<Object> members = membersInjector(type);
+            for (Object component : group) {
+                members.injectMembers(component);
+            }
+        }
     }
 
-    public void inject(final Object component) {
-        assert component != null;
+    public <T> T create(final Class<T> type, final Object... args) {
+        assert type != null;
+        assert args != null;
 
-        Class type = component.getClass();
+        Constructor<?> constructor = constructorFor(type, args);
+        T component;
+        InjectomaticAspectHelper.Creation previous = InjectomaticAspectHelper.beginCreate(type);
+        try {
+            component = type.cast(constructor.newInstance(args));
+        }
+        catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException("Failed to create: " + type.getName(), cause);
+        }
+        catch (Exception e) {
+            throw new RuntimeException("Failed to create: " + type.getName(), e);
+        }
+        finally {
+            InjectomaticAspectHelper.endCreate(previous);
+        }
 
-        if (!isInjectable(type)) {
-            log.trace("Type not injectable; skipping: {}", type);
-            return;
+        // Same as when injected by the aspect
+        inject(component);
+        return component;
+    }
+
+    /**
+     * Returns the most specific public constructor accepting the given arguments, as the compiler would pick.
+     */
+    private Constructor<?> constructorFor(final Class<?> type, final Object[] args) {
+        Constructor<?>[] candidates = constructors.get(type).get();
+        if (candidates == null) {
+            // Collected, resolve again
+            constructors.remove(type);
+            Constructors resolved = constructors.get(type);
+            candidates = resolved.get();
+            if (candidates == null) {
+                candidates = Constructors.accessible(type.getConstructors());
+            }
+        }
+
+        List<Constructor<?>> applicable = new ArrayList<Constructor<?>>(candidates.length);
+        for (Constructor<?> candidate : candidates) {
+            if (accepts(candidate.getParameterTypes(), args)) {
+                applicable.add(candidate);
+            }
+        }
+        if (applicable.isEmpty()) {
+            throw new IllegalArgumentException("No public constructor of " + type.getName() + " accepts: " + Arrays.toString(args));
+        }
+        if (applicable.size() == 1) {
+            return applicable.get(0);
         }
 
+        Constructor<?> result = null;
+        for (Constructor<?> candidate : applicable) {
+            if (isMostSpecific(candidate, applicable)) {
+                if (result != null) {
+                    result = null;
+                    break;
+                }
+                result = candidate;
+            }
+        }
+        if (result == null) {
+            throw new IllegalArgumentException("Ambiguous constructors of " + type.getName() + " for: " + Arrays.toString(args) + "; " + applicable);
+        }
+        return result;
+    }
+
+    private static boolean isMostSpecific(final Constructor<?> candidate, final List<Constructor<?>> applicable) {
+        Class<?>[] types = candidate.getParameterTypes();
+        for (Constructor<?> other : applicable) {
+            if (other != candidate) {
+                Class<?>[] others = other.getParameterTypes();
+                for (int i = 0; i < types.length; i++) {
+                    if (!box(others[i]).isAssignableFrom(box(types[i]))) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean accepts(final Class<?>[] types, final Object[] args) {
+        if (types.length != args.length) {
+            return false;
+        }
+        for (int i = 0; i < types.length; i++) {
+            Class<?> type = types[i];
+            if (args[i] == null) {
+                if (type.isPrimitive()) {
+                    return false;
+                }
+            }
+            else if (!box(type).isInstance(args[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Class<?> box(final Class<?> type) {
+        if (!type.isPrimitive()) {
+            return type;
+        }
+        if (type == int.class) {
+            return Integer.class;
+        }
+        if (type == long.class) {
+            return Long.class;
+        }
+        if (type == boolean.class) {
+            return Boolean.class;
+        }
+        if (type == double.class) {
+            return Double.class;
+        }
+        if (type == float.class) {
+            return Float.class;
+        }
+        if (type == char.class) {
+            return Character.class;
+        }
+        if (type == byte.class) {
+            return Byte.class;
+        }
+        return Short.class;
+    }
+
+    @SuppressWarnings({"unchecked"})
+    private MembersInjector<Object> membersInjector(final Class<?> type) {
+        MembersInjector<?> members = plans.get(type).get();
+        if (members == null) {
+            // The injector has gone away, resolve again
+            plans.remove(type);
+            members = injectorFor(type).getMembersInjector(type);
+        }
+        return (MembersInjector<Object>) members;
+    }
+
+    private Injector injectorFor(final Class<?> type) {
         ClassLoader tmp = type.getClassLoader();
-        Injector injector;
         if (tmp instanceof PluginClassLoader) {
             PluginClassLoader cl = (PluginClassLoader)tmp;
-            injector = container.injector(cl.getPlugin());
+            return container.injector(cl.getPlugin());
         }
-        else {
-            // Use the root injector if we did not load from a plugin
-            injector = ((SmoothieContainerImpl)container).rootInjector();
+
+        // Use the root injector if we did not load from a plugin
+        return ((SmoothieContainerImpl)container).rootInjector();
+    }
+
+    /**
+     * Resolved members injector of a class.
+     *
+     * Weakly referenced, as it references the class; the injector keeps its members injectors for its own lifetime.
+     */
+    private static class Plan
+        extends WeakReference<MembersInjector<?>>
+    {
+        private Plan(final MembersInjector<?> members) {
+            super(members);
         }
+    }
 
-        if (log.isTraceEnabled()) {
-            log.trace("Injecting: {} ({})", component, OID.get(component));
+    /**
+     * Public constructors of a class.
+     *
+     * Softly referenced, as they reference the class; kept unless memory runs low.
+     */
+    private static class Constructors
+        extends SoftReference<Constructor<?>[]>
+    {
+        private Constructors(final Class<?> type) {
+            super(accessible(type.getConstructors()));
         }
 
-        injector.injectMembers(component);
+        /**
+         * Only public constructors are given, this lets them be called when the class itself is not public.
+         */
+        private static Constructor<?>[] accessible(final Constructor<?>[] constructors) {
+            for (Constructor<?> constructor : constructors) {
+                constructor.setAccessible(true);
+            }
+            return constructors;
+        }
     }
-}
\ No newline at end of file
+}
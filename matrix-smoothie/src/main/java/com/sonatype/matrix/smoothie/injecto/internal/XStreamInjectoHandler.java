@@ -44,10 +44,16 @@ import org.sonatype.inject.EagerSingleton;
 import javax.inject.Inject;
 import javax.inject.Named;
 import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Handles {@link com.sonatype.matrix.smoothie.injecto.Injectomatic} muck when unmarshalling components via XStream.
  *
+ * By default each object is injected as soon as it is unmarshalled, before XStream calls its {@code readResolve()}.
+ * When deferred injection is enabled objects are instead collected while a document is unmarshalled and injected
+ * together once it completes; so {@code readResolve()} and the like see the objects before they are injected.
+ *
  * @author <a href="mailto:jason@planet57.com">Jason Dillon</a>
  * @since 0.2
  */
@@ -57,6 +63,11 @@ public class XStreamInjectoHandler
 {
     private static final Logger log = LoggerFactory.getLogger(XStreamInjectoHandler.class);
 
+    /**
+     * Set to {@code true} to inject objects once the whole document is unmarshalled, instead of each as soon as it is.
+     */
+    public static final boolean DEFERRED = Boolean.parseBoolean(System.getProperty(XStreamInjectoHandler.class.getName() + ".deferred", "false"));
+
     /**
      * {@link XmlFile#DEFAULT_XSTREAM} is not public, so we have to use reflection to get a hold of it :-(
      */
@@ -126,9 +137,47 @@ public class XStreamInjectoHandler
         @Override
         public Object doUnmarshal(Object result, final HierarchicalStreamReader reader, final UnmarshallingContext context) {
             result = super.doUnmarshal(result, reader, context);
-            log.trace("Injecting instance of Describable from converter");
-            injecto.inject(result);
+            if (DEFERRED) {
+                batchOf(context).add(result);
+            }
+            else {
+                log.trace("Injecting instance of Describable from converter");
+                injecto.inject(result);
+            }
             return result;
         }
     }
+
+    /**
+     * Returns the injection batch of the document being unmarshalled; created on first use.
+     */
+    private Batch batchOf(final UnmarshallingContext context) {
+        Batch batch = (Batch) context.get(Batch.class);
+        if (batch == null) {
+            batch = new Batch();
+            context.put(Batch.class, batch);
+            // Only called once the whole document has been unmarshalled, so discarded documents are never injected
+            context.addCompletionCallback(batch, 0);
+        }
+        return batch;
+    }
+
+    /**
+     * Objects of a document, injected together once it has been unmarshalled.
+     */
+    private class Batch
+        implements Runnable
+    {
+        private final List<Object> components = new ArrayList<Object>();
+
+        private void add(final Object component) {
+            components.add(component);
+        }
+
+        public void run() {
+            log.trace("Injecting {} unmarshalled objects", components.size());
+            injecto.injectAll(components);
+            components.clear();
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,186 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sonatype.matrix.smoothie.internal;
+
+import com.google.inject.Key;
+import com.sonatype.matrix.smoothie.BeanView;
+import com.sonatype.matrix.smoothie.SmoothieContainer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonatype.guice.bean.locators.QualifiedBean;
+
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * {@link BeanView} implementation.
+ *
+ * Refreshed by {@link SmoothieContainerImpl} when an injector which binds the key's type is registered, or on the
+ * next read when a plugin which may provide the type has been deferred.
+ *
+ * @author <a href="mailto:jason@planet57.com">Jason Dillon</a>
+ * @since 1.1
+ */
+public class BeanViewImpl<Q extends Annotation, T>
+    implements BeanView<Q,T>
+{
+    private static final Logger log = LoggerFactory.getLogger(BeanViewImpl.class);
+
+    private final SmoothieContainer container;
+
+    private final Key<T> key;
+
+    private final List<Listener<Q,T>> listeners = new CopyOnWriteArrayList<Listener<Q,T>>();
+
+    private volatile List<QualifiedBean<Q,T>> beans;
+
+    private volatile boolean stale = true;
+
+    private long requested;
+
+    private long applied;
+
+    public BeanViewImpl(final SmoothieContainer container, final Key<T> key) {
+        assert container != null;
+        this.container = container;
+        assert key != null;
+        this.key = key;
+    }
+
+    public Key<T> getKey() {
+        return key;
+    }
+
+    public List<QualifiedBean<Q,T>> getBeans() {
+        List<QualifiedBean<Q,T>> current = beans;
+        if (stale || current == null) {
+            refresh();
+            current = beans;
+        }
+        return current;
+    }
+
+    public Iterator<QualifiedBean<Q,T>> iterator() {
+        return getBeans().iterator();
+    }
+
+    public void addListener(final Listener<Q,T> listener) {
+        assert listener != null;
+        listeners.add(listener);
+    }
+
+    public void removeListener(final Listener<Q,T> listener) {
+        assert listener != null;
+        listeners.remove(listener);
+    }
+
+    /**
+     * Mark the view to be refreshed on its next read, and tell listeners so.
+     */
+    void invalidate() {
+        stale = true;
+
+        for (Listener<Q,T> listener : listeners) {
+            try {
+                listener.invalidated(this);
+            }
+            catch (Exception e) {
+                log.warn("Bean view listener failed: {}", listener, e);
+            }
+        }
+    }
+
+    /**
+     * Locate the components again, notifying listeners of any which were added.
+     *
+     * Locating may activate deferred plugins, which registers them, so it is not done while holding the view lock.
+     */
+    void refresh() {
+        long version;
+        synchronized (this) {
+            stale = false;
+            version = ++requested;
+        }
+
+        List<QualifiedBean<Q,T>> current = new ArrayList<QualifiedBean<Q,T>>();
+        for (QualifiedBean<Q,T> bean : container.<Q,T>locate(key)) {
+            current.add(bean);
+        }
+
+        List<QualifiedBean<Q,T>> added;
+        synchronized (this) {
+            // A later refresh already applied a newer result
+            if (version < applied) {
+                return;
+            }
+            applied = version;
+
+            List<QualifiedBean<Q,T>> previous = beans;
+            beans = Collections.unmodifiableList(current);
+            if (previous == null) {
+                return;
+            }
+
+            // Beans are created per locate, bindings are stable
+            Map<Object,Boolean> known = new IdentityHashMap<Object,Boolean>();
+            for (QualifiedBean<Q,T> bean : previous) {
+                known.put(bean.getBinding(), Boolean.TRUE);
+            }
+            added = new ArrayList<QualifiedBean<Q,T>>();
+            for (QualifiedBean<Q,T> bean : current) {
+                if (!known.containsKey(bean.getBinding())) {
+                    added.add(bean);
+                }
+            }
+        }
+
+        if (added.isEmpty()) {
+            return;
+        }
+
+        added = Collections.unmodifiableList(added);
+        for (Listener<Q,T> listener : listeners) {
+            try {
+                listener.added(this, added);
+            }
+            catch (Exception e) {
+                log.warn("Bean view listener failed: {}", listener, e);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BeanView{" +
+            "key=" + key +
+            '}';
+    }
+}
@@ -0,0 +1,180 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sonatype.matrix.smoothie.internal;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lazily computed values associated with classes, in the spirit of Java 7's {@code ClassValue}.
+ *
+ * Classes are only weakly referenced, so cached values never keep a plugin class-loader alive; values therefore
+ * must not strongly reference their class either.  Reads neither lock nor allocate; they look up with a per-thread
+ * probe instead of a new weak key.
+ *
+ * @author <a href="mailto:jason@planet57.com">Jason Dillon</a>
+ * @since 1.1
+ */
+public abstract class ClassCache<V>
+{
+    /**
+     * Keyed by {@link Key}, looked up by {@link Probe}.
+     */
+    private final ConcurrentHashMap<Object,V> values = new ConcurrentHashMap<Object,V>();
+
+    private static final ThreadLocal<Probe> probes = new ThreadLocal<Probe>()
+    {
+        @Override
+        protected Probe initialValue() {
+            return new Probe();
+        }
+    };
+
+    private final ReferenceQueue<Class<?>> queue = new ReferenceQueue<Class<?>>();
+
+    /**
+     * Compute the value for the given class; may be called more than once for a class under contention.
+     *
+     * @return  The value; never null
+     */
+    protected abstract V computeValue(Class<?> type);
+
+    public V get(final Class<?> type) {
+        assert type != null;
+
+        V value = lookup(type);
+        if (value == null) {
+            value = computeValue(type);
+            assert value != null;
+
+            expunge();
+            V existing = values.putIfAbsent(new Key(type, queue), value);
+            if (existing != null) {
+                value = existing;
+            }
+        }
+        return value;
+    }
+
+    private V lookup(final Class<?> type) {
+        Probe probe = probes.get();
+        probe.set(type);
+        try {
+            return values.get(probe);
+        }
+        finally {
+            // Don't keep the class reachable from the thread
+            probe.set(null);
+        }
+    }
+
+    public void remove(final Class<?> type) {
+        assert type != null;
+        Probe probe = probes.get();
+        probe.set(type);
+        try {
+            values.remove(probe);
+        }
+        finally {
+            probe.set(null);
+        }
+    }
+
+    public int size() {
+        expunge();
+        return values.size();
+    }
+
+    /**
+     * Drop values of classes which have been collected.
+     */
+    private void expunge() {
+        Reference<?> ref;
+        while ((ref = queue.poll()) != null) {
+            values.remove(ref);
+        }
+    }
+
+    private static class Key
+        extends WeakReference<Class<?>>
+    {
+        private final int hash;
+
+        private Key(final Class<?> type, final ReferenceQueue<Class<?>> queue) {
+            super(type, queue);
+            this.hash = System.identityHashCode(type);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            Object type = get();
+            if (type == null) {
+                return false;
+            }
+            if (obj instanceof Probe) {
+                return type == ((Probe) obj).type;
+            }
+            return obj instanceof Key && type == ((Key) obj).get();
+        }
+    }
+
+    /**
+     * Reusable lookup key, equal to the {@link Key} of the same class.
+     */
+    private static class Probe
+    {
+        private Class<?> type;
+
+        private int hash;
+
+        private void set(final Class<?> type) {
+            this.type = type;
+            this.hash = System.identityHashCode(type);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            return obj instanceof Key && type != null && type == ((Key) obj).get();
+        }
+    }
+}
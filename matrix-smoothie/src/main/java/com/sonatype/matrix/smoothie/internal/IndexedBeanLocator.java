@@ -0,0 +1,189 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sonatype.matrix.smoothie.internal;
+
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.TypeLiteral;
+import org.sonatype.guice.bean.locators.DefaultBeanLocator;
+import org.sonatype.guice.bean.locators.MutableBeanLocator;
+import org.sonatype.guice.bean.locators.QualifiedBean;
+
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link MutableBeanLocator} which only consults the injectors that have bindings for the located type.
+ *
+ * Injectors are indexed by the types of their explicit bindings when added.  Each located type gets its own
+ * {@link DefaultBeanLocator} holding just the injectors which bind it, so lookup cost scales with the number of
+ * matching injectors instead of the number of plugins.  Qualifiers are matched by the per-type locator as before.
+ *
+ * Per-type locators are kept up to date as injectors are added and removed, so located sequences and listeners
+ * behave as they do with a single {@link DefaultBeanLocator}.
+ *
+ * @author <a href="mailto:jason@planet57.com">Jason Dillon</a>
+ * @since 1.1
+ */
+public class IndexedBeanLocator
+    implements MutableBeanLocator
+{
+    /**
+     * Injectors, in the order added.
+     */
+    private final Set<Injector> injectors = new LinkedHashSet<Injector>();
+
+    /**
+     * Injectors with explicit bindings for each type, in the order added.
+     */
+    private final Map<TypeLiteral<?>,Set<Injector>> index = new ConcurrentHashMap<TypeLiteral<?>,Set<Injector>>();
+
+    /**
+     * Locators for each type located so far.
+     */
+    private final Map<TypeLiteral<?>,MutableBeanLocator> locators = new ConcurrentHashMap<TypeLiteral<?>,MutableBeanLocator>();
+
+    public <Q extends Annotation, T> Iterable<QualifiedBean<Q,T>> locate(final Key<T> key, final Runnable listener) {
+        assert key != null;
+        return locatorFor(key.getTypeLiteral()).locate(key, listener);
+    }
+
+    private MutableBeanLocator locatorFor(final TypeLiteral<?> type) {
+        MutableBeanLocator locator = locators.get(type);
+        if (locator == null) {
+            synchronized (this) {
+                locator = locators.get(type);
+                if (locator == null) {
+                    locator = new DefaultBeanLocator();
+                    Set<Injector> matches = index.get(type);
+                    if (matches != null) {
+                        for (Injector injector : matches) {
+                            locator.add(injector);
+                        }
+                    }
+                    locators.put(type, locator);
+                }
+            }
+        }
+        return locator;
+    }
+
+    public synchronized void add(final Injector injector) {
+        assert injector != null;
+        if (!injectors.add(injector)) {
+            return;
+        }
+
+        for (TypeLiteral<?> type : typesOf(injector)) {
+            Set<Injector> matches = index.get(type);
+            if (matches == null) {
+                matches = new LinkedHashSet<Injector>();
+                index.put(type, matches);
+            }
+            matches.add(injector);
+
+            MutableBeanLocator locator = locators.get(type);
+            if (locator != null) {
+                locator.add(injector);
+            }
+        }
+    }
+
+    public synchronized void remove(final Injector injector) {
+        assert injector != null;
+        if (!injectors.remove(injector)) {
+            return;
+        }
+
+        for (TypeLiteral<?> type : typesOf(injector)) {
+            Set<Injector> matches = index.get(type);
+            if (matches != null) {
+                matches.remove(injector);
+                if (matches.isEmpty()) {
+                    index.remove(type);
+                }
+            }
+
+            MutableBeanLocator locator = locators.get(type);
+            if (locator != null) {
+                locator.remove(injector);
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        for (Injector injector : new ArrayList<Injector>(injectors)) {
+            remove(injector);
+        }
+    }
+
+    private static Set<TypeLiteral<?>> typesOf(final Injector injector) {
+        Set<TypeLiteral<?>> types = new LinkedHashSet<TypeLiteral<?>>();
+        for (Key<?> key : injector.getBindings().keySet()) {
+            types.add(key.getTypeLiteral());
+        }
+        return types;
+    }
+
+    /**
+     * True if any injector has an explicit binding for the given type; if not, locating it finds nothing.
+     */
+    public boolean isBound(final TypeLiteral<?> type) {
+        assert type != null;
+        return index.containsKey(type);
+    }
+
+    /**
+     * Returns the number of indexed types.
+     */
+    public int getTypeCount() {
+        return index.size();
+    }
+
+    /**
+     * Returns the number of injectors with bindings for the given type.
+     */
+    public int getInjectorCount(final TypeLiteral<?> type) {
+        assert type != null;
+        synchronized (this) {
+            Set<Injector> matches = index.get(type);
+            return matches != null ? matches.size() : 0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "IndexedBeanLocator{" +
+            "injectors=" + injectors.size() +
+            ", types=" + index.size() +
+            ", located=" + locators.size() +
+            '}';
+    }
+}
@@ -25,6 +25,7 @@
 package com.sonatype.matrix.smoothie.internal;
 
 import com.google.inject.AbstractModule;
+import com.sonatype.matrix.smoothie.internal.space.ClassSpaceFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sonatype.guice.bean.binders.SpaceModule;
@@ -37,7 +38,8 @@ import java.util.List;
 
 /**
  * Helper module to install a {@link SpaceModule} with a {@link URLClassSpace} module
- * to scan classes for binding annotations.
+ * to scan classes for binding annotations.  Classpath entries with a
+ * {@link com.sonatype.matrix.smoothie.index.ComponentIndex} are not scanned.
  *
  * @author <a href="mailto:jason@planet57.com">Jason Dillon</a>
  * @since 1.1
@@ -84,6 +86,6 @@ public class ScanpathModule
             }
         }
 
-        return new URLClassSpace(parent, urls);
+        return ClassSpaceFactory.create(parent, urls);
     }
 }
\ No newline at end of file
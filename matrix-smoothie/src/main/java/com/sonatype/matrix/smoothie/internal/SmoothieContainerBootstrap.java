@@ -24,9 +24,12 @@
 
 package com.sonatype.matrix.smoothie.internal;
 
+import com.google.inject.Injector;
 import com.sonatype.matrix.smoothie.Smoothie;
 import com.sonatype.matrix.smoothie.SmoothieContainer;
 import com.sonatype.matrix.smoothie.injecto.internal.InjectomaticAspectHelper;
+import com.sonatype.matrix.smoothie.internal.extension.SmoothieExtensionFinder;
+import com.sonatype.matrix.smoothie.internal.plugin.PluginRegistrar;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -53,6 +56,19 @@ public class SmoothieContainerBootstrap
         SmoothieContainer container = new SmoothieContainerImpl(cp);
         Smoothie.setContainer(container);
 
+        if (SmoothieExtensionFinder.WARMUP) {
+            Injector root = ((SmoothieContainerImpl) container).rootInjector();
+            final SmoothieExtensionFinder finder = root.getInstance(SmoothieExtensionFinder.class);
+
+            // Registering plugins invalidates anything found before, so only warm once all are loaded
+            root.getInstance(PluginRegistrar.class).whenLoaded(new Runnable()
+            {
+                public void run() {
+                    finder.warmup(SmoothieExtensionFinder.COMMON_TYPES);
+                }
+            });
+        }
+
         return container;
     }
 }
\ No newline at end of file
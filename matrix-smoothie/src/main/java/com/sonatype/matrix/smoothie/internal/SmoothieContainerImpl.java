@@ -25,14 +25,25 @@
 package com.sonatype.matrix.smoothie.internal;
 
 import com.google.inject.AbstractModule;
+import com.google.inject.Binding;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import com.google.inject.Key;
 import com.google.inject.Module;
+import com.google.inject.Scope;
+import com.google.inject.Scopes;
+import com.google.inject.TypeLiteral;
+import com.google.inject.spi.BindingScopingVisitor;
+import com.google.inject.spi.InstanceBinding;
+import com.sonatype.matrix.smoothie.BeanView;
 import com.sonatype.matrix.smoothie.SmoothieContainer;
 import com.sonatype.matrix.smoothie.internal.extension.SmoothieExtensionFinder;
 import com.sonatype.matrix.smoothie.internal.plugin.PluginClassLoader;
+import com.sonatype.matrix.smoothie.internal.plugin.PluginTimings;
 import com.sonatype.matrix.smoothie.internal.plugin.SmoothiePluginStrategy;
+import com.sonatype.matrix.smoothie.internal.space.ClassSpaceFactory;
+import com.sonatype.matrix.smoothie.internal.space.IndexedClassSpace;
+import com.sonatype.matrix.smoothie.internal.space.ScanCache;
 import com.thoughtworks.xstream.converters.reflection.ReflectionProvider;
 import com.thoughtworks.xstream.core.JVM;
 import hudson.ExtensionFinder;
@@ -42,16 +53,21 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sonatype.guice.bean.binders.SpaceModule;
 import org.sonatype.guice.bean.binders.WireModule;
-import org.sonatype.guice.bean.locators.DefaultBeanLocator;
 import org.sonatype.guice.bean.locators.MutableBeanLocator;
 import org.sonatype.guice.bean.locators.QualifiedBean;
 import org.sonatype.guice.bean.reflect.ClassSpace;
 import org.sonatype.guice.bean.reflect.URLClassSpace;
 
 import java.lang.annotation.Annotation;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * {@link SmoothieContainer} implementation.
@@ -64,17 +80,57 @@ public class SmoothieContainerImpl
 {
     private static final Logger log = LoggerFactory.getLogger(SmoothieContainerImpl.class);
 
-    private final MutableBeanLocator locator = new DefaultBeanLocator();
+    private final IndexedBeanLocator locator = new IndexedBeanLocator();
 
     private final Injector root;
 
-    private final Map<PluginWrapper,Injector> injectors = new HashMap<PluginWrapper,Injector>();
+    private final Map<PluginWrapper,Injector> injectors = new ConcurrentHashMap<PluginWrapper,Injector>();
 
     private final ReflectionProvider reflection = new JVM().bestReflectionProvider();
 
+    private final ScanCache scanCache;
+
+    private final PluginTimings timings;
+
+    private final Map<PluginWrapper,Deferred> deferred = new ConcurrentHashMap<PluginWrapper,Deferred>();
+
+    /**
+     * Deferred plugins, keyed by the names of the types their components may provide.
+     */
+    private final Map<String,List<Deferred>> deferredTypes = new ConcurrentHashMap<String,List<Deferred>>();
+
+    private final Object activationLock = new Object();
+
+    /**
+     * Deferred plugins which failed to activate, with the cause.
+     */
+    private final Map<PluginWrapper,RuntimeException> failures = new ConcurrentHashMap<PluginWrapper,RuntimeException>();
+
+    /**
+     * Incremented whenever an injector is added or a plugin deferred, so cached lookups can tell when they are stale.
+     */
+    private volatile long epoch;
+
+    /**
+     * Singletons resolved by {@link #get}, valid while the epoch they were resolved at is current.
+     */
+    private final Map<Key<?>,Resolved> resolved = new ConcurrentHashMap<Key<?>,Resolved>();
+
+    /**
+     * Live views, by key.
+     */
+    private final Map<Key<?>,BeanViewImpl<?,?>> views = new ConcurrentHashMap<Key<?>,BeanViewImpl<?,?>>();
+
+    /**
+     * Keys already reported as having more than one instance bound.
+     */
+    private final Set<Key<?>> duplicates = Collections.newSetFromMap(new ConcurrentHashMap<Key<?>,Boolean>());
+
     public SmoothieContainerImpl(final Module... modules) {
         root = Guice.createInjector(new WireModule(new BootModule(modules)));
         locator.add(root);
+        scanCache = root.getInstance(ScanCache.class);
+        timings = root.getInstance(PluginTimings.class);
     }
 
     /**
@@ -122,9 +178,13 @@ public class SmoothieContainerImpl
     {
         private final PluginWrapper plugin;
 
-        private PluginModule(final PluginWrapper plugin) {
+        private final ClassSpace space;
+
+        private PluginModule(final PluginWrapper plugin, final ClassSpace space) {
             assert plugin != null;
             this.plugin = plugin;
+            assert space != null;
+            this.space = space;
         }
 
         @Override
@@ -133,23 +193,29 @@ public class SmoothieContainerImpl
             bind(SmoothieContainer.class).toInstance(SmoothieContainerImpl.this);
             bind(ReflectionProvider.class).toInstance(reflection);
 
-            install(new SpaceModule(createClassSpace()));
+            install(new SpaceModule(space));
+            // SpaceModule scans while being installed, so results are complete here
+            scanCache.store(plugin, space);
+
             install(new HudsonModule());
         }
+    }
 
-        private ClassSpace createClassSpace() {
-            URLClassSpace space;
+    private ClassSpace createClassSpace(final PluginWrapper plugin) {
+        PluginTimings.Sample sample = timings.begin();
+        try {
             if (plugin.classLoader instanceof PluginClassLoader) {
                 PluginClassLoader cl = (PluginClassLoader) plugin.classLoader;
-                space = new URLClassSpace(cl, cl.getURLs()); // urls logged from PluginWrapperFactory
-            }
-            else {
-                // This should never happen with SmoothiePluginStrategy
-                log.warn("Expected plugin to have PluginClassLoader; instead found: {}", plugin.classLoader.getClass().getName());
-                space = new URLClassSpace(plugin.classLoader);
+                ClassSpace space = ClassSpaceFactory.create(cl, cl.getURLs(), cl.getIndex()); // urls logged from PluginWrapperFactory
+                return scanCache.lookup(plugin, cl, space);
             }
 
-            return space;
+            // This should never happen with SmoothiePluginStrategy
+            log.warn("Expected plugin to have PluginClassLoader; instead found: {}", plugin.classLoader.getClass().getName());
+            return new URLClassSpace(plugin.classLoader);
+        }
+        finally {
+            timings.record(plugin.getShortName(), PluginTimings.Phase.CLASS_SPACE, sample);
         }
     }
 
@@ -161,22 +227,300 @@ public class SmoothieContainerImpl
         }
 
         // Don't allow re-registration of plugins
-        if (injectors.containsKey(plugin)) {
+        if (injectors.containsKey(plugin) || deferred.containsKey(plugin)) {
             throw new IllegalStateException("Plugin already registered");
         }
 
-        Injector injector = Guice.createInjector(new WireModule(new PluginModule(plugin)));
+        register(plugin, createInjector(plugin));
+    }
+
+    /**
+     * Create the injector for a plugin, w/o registering it.  Safe to call concurrently for different plugins.
+     *
+     * Not officially part of {@link SmoothieContainer} API, exposed for {@link com.sonatype.matrix.smoothie.internal.plugin.PluginRegistrar}.
+     *
+     * @since 1.1
+     */
+    public Injector createInjector(final PluginWrapper plugin) {
+        assert plugin != null;
+        return createInjector(plugin, createClassSpace(plugin));
+    }
+
+    private Injector createInjector(final PluginWrapper plugin, final ClassSpace space) {
+        PluginTimings.Sample sample = timings.begin();
+        try {
+            return Guice.createInjector(new WireModule(new PluginModule(plugin, space)));
+        }
+        finally {
+            timings.record(plugin.getShortName(), PluginTimings.Phase.REGISTER, sample);
+        }
+    }
+
+    /**
+     * Register a plugin with an injector previously built by {@link #createInjector}.
+     *
+     * Not officially part of {@link SmoothieContainer} API, exposed for {@link com.sonatype.matrix.smoothie.internal.plugin.PluginRegistrar}.
+     *
+     * @since 1.1
+     */
+    public void register(final PluginWrapper plugin, final Injector injector) {
+        assert plugin != null;
+        assert injector != null;
+
+        synchronized (this) {
+            // Don't allow re-registration of plugins
+            if (injectors.containsKey(plugin)) {
+                throw new IllegalStateException("Plugin already registered");
+            }
+
+            locator.add(injector);
+            injectors.put(plugin, injector);
+            epoch++;
+        }
+
+        // Refreshing locates, which may activate deferred plugins; never do that holding the container lock
+        refreshViews(injector);
+    }
+
+    /**
+     * Refresh the views of types the given injector binds.
+     *
+     * Must not be called holding the container lock; see {@link #activate(Deferred)}.
+     */
+    private void refreshViews(final Injector injector) {
+        if (views.isEmpty()) {
+            return;
+        }
+
+        Set<TypeLiteral<?>> types = new HashSet<TypeLiteral<?>>();
+        for (Key<?> key : injector.getBindings().keySet()) {
+            types.add(key.getTypeLiteral());
+        }
+        for (BeanViewImpl<?,?> view : views.values()) {
+            if (types.contains(view.getKey().getTypeLiteral())) {
+                view.refresh();
+            }
+        }
+    }
+
+    /**
+     * Returns the current epoch, which changes whenever the results of {@link #locate} may have changed.
+     *
+     * Read the epoch before locating, so results cached with it are never newer than it claims.
+     *
+     * Not officially part of {@link SmoothieContainer} API, exposed for {@link SmoothieExtensionFinder}.
+     *
+     * @since 1.1
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * True if locating the given type may find any component; either an injector binds it or a deferred plugin may
+     * provide it.  Changes precisely when an injector which binds the type is registered.
+     *
+     * Not officially part of {@link SmoothieContainer} API, exposed for {@link SmoothieExtensionFinder}.
+     *
+     * @since 1.1
+     */
+    public boolean mayProvide(final Class<?> type) {
+        assert type != null;
+        if (locator.isBound(TypeLiteral.get(type))) {
+            return true;
+        }
+        List<Deferred> targets = deferredTypes.get(type.getName());
+        return targets != null && !targets.isEmpty();
+    }
+
+    /**
+     * Register a plugin, deferring creation of its injector until it is first needed; either by {@link #injector}
+     * or when a type which one of its components may provide is {@link #locate located}.
+     *
+     * Deferring requires the complete list of the plugin's components, from a component index or the scan cache.
+     * Plugins without one are registered immediately, as are plugins with {@link Module} or provider components,
+     * since the types those bind are only known once the injector is created.
+     *
+     * Not officially part of {@link SmoothieContainer} API, exposed for {@link com.sonatype.matrix.smoothie.internal.plugin.PluginRegistrar}.
+     *
+     * @return  True if the plugin has been deferred.
+     *
+     * @since 1.1
+     */
+    public boolean defer(final PluginWrapper plugin) {
+        assert plugin != null;
+
+        ClassSpace space = createClassSpace(plugin);
+        Set<String> types = null;
+        if (space instanceof IndexedClassSpace && ((IndexedClassSpace) space).isComplete()) {
+            types = typesOf(plugin, ((IndexedClassSpace) space).getNames());
+        }
+
+        if (types == null) {
+            log.debug("Plugin has no complete component index or binds unknown types, registering now: {}", plugin.getShortName());
+            register(plugin, createInjector(plugin, space));
+            return false;
+        }
+
+        Deferred target = new Deferred(plugin, space, types);
+        List<BeanViewImpl<?,?>> invalidated = new ArrayList<BeanViewImpl<?,?>>();
+        synchronized (this) {
+            if (injectors.containsKey(plugin) || deferred.containsKey(plugin)) {
+                throw new IllegalStateException("Plugin already registered");
+            }
+            deferred.put(plugin, target);
+            for (String type : types) {
+                List<Deferred> list = deferredTypes.get(type);
+                if (list == null) {
+                    list = new CopyOnWriteArrayList<Deferred>();
+                    deferredTypes.put(type, list);
+                }
+                list.add(target);
+            }
+            // Cached lookups must locate again to activate it
+            epoch++;
+
+            for (BeanViewImpl<?,?> view : views.values()) {
+                if (types.contains(view.getKey().getTypeLiteral().getRawType().getName())) {
+                    invalidated.add(view);
+                }
+            }
+        }
+
+        // Tells view listeners, which must not be called holding the container lock
+        for (BeanViewImpl<?,?> view : invalidated) {
+            view.invalidate();
+        }
+
+        log.debug("Deferred plugin: {} ({} component types)", plugin.getShortName(), types.size());
+        return true;
+    }
+
+    /**
+     * Returns the names of all types the given components are assignable to, or null if a component could not be loaded
+     * or binds types other than its own.
+     */
+    private Set<String> typesOf(final PluginWrapper plugin, final Set<String> components) {
+        Set<String> types = new HashSet<String>();
+        for (String name : components) {
+            Class<?> type;
+            try {
+                type = plugin.classLoader.loadClass(name);
+            }
+            catch (Throwable e) {
+                log.debug("Unable to load component {} of plugin: {}", new Object[] { name, plugin.getShortName(), e });
+                return null;
+            }
+            if (bindsOtherTypes(type)) {
+                log.debug("Component {} of plugin {} binds other types", name, plugin.getShortName());
+                return null;
+            }
+            collectTypes(type, types);
+        }
+        return types;
+    }
+
+    /**
+     * True for modules and providers, whose bindings are not given by their own type.
+     */
+    private static boolean bindsOtherTypes(final Class<?> type) {
+        return Module.class.isAssignableFrom(type)
+            || javax.inject.Provider.class.isAssignableFrom(type)
+            || com.google.inject.Provider.class.isAssignableFrom(type);
+    }
+
+    private static void collectTypes(final Class<?> type, final Set<String> types) {
+        if (type == null || !types.add(type.getName())) {
+            return;
+        }
+        collectTypes(type.getSuperclass(), types);
+        for (Class<?> iface : type.getInterfaces()) {
+            collectTypes(iface, types);
+        }
+    }
+
+    /**
+     * Activate any deferred plugins which may provide the given type.
+     */
+    private void activate(final Class<?> type) {
+        List<Deferred> targets = deferredTypes.get(type.getName());
+        if (targets != null) {
+            for (Deferred target : targets) {
+                activate(target);
+            }
+        }
+    }
+
+    private void activate(final Deferred target) {
+        // Activations are rare; a single lock avoids ordering problems when activating one plugin requires another.
+        // Lock order is the activation lock, then the container lock; locating never happens holding the latter.
+        synchronized (activationLock) {
+            if (target.activated) {
+                return;
+            }
+            target.activated = true;
+
+            PluginWrapper plugin = target.plugin;
+            log.debug("Activating plugin: {}", plugin.getShortName());
+            try {
+                register(plugin, createInjector(plugin, target.space));
+            }
+            catch (RuntimeException e) {
+                // Locating carries on without the plugin, asking for its injector fails with the cause
+                log.error("Failed to activate plugin: " + plugin.getShortName(), e);
+                failures.put(plugin, e);
+            }
+            finally {
+                // Only forget after registering so the plugin is always visible as deferred or registered
+                deferred.remove(plugin);
+                for (String type : target.types) {
+                    List<Deferred> list = deferredTypes.get(type);
+                    if (list != null) {
+                        list.remove(target);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A plugin registered for lazy activation.
+     */
+    private static class Deferred
+    {
+        private final PluginWrapper plugin;
+
+        private final ClassSpace space;
 
-        locator.add(injector);
-        injectors.put(plugin, injector);
+        private final Set<String> types;
+
+        private boolean activated;
+
+        private Deferred(final PluginWrapper plugin, final ClassSpace space, final Set<String> types) {
+            this.plugin = plugin;
+            this.space = space;
+            this.types = types;
+        }
     }
 
     public Injector injector(final PluginWrapper plugin) {
         assert plugin != null;
         Injector injector = injectors.get(plugin);
 
+        if (injector == null) {
+            Deferred target = deferred.get(plugin);
+            if (target != null) {
+                activate(target);
+            }
+            injector = injectors.get(plugin);
+        }
+
         // All plugins must be registered
         if (injector == null) {
+            RuntimeException failure = failures.get(plugin);
+            if (failure != null) {
+                throw new IllegalStateException("Plugin failed to activate: " + plugin.getShortName(), failure);
+            }
             throw new IllegalStateException("Plugin not registered");
         }
 
@@ -184,10 +528,44 @@ public class SmoothieContainerImpl
     }
 
     public <Q extends Annotation, T> Iterable<QualifiedBean<Q, T>> locate(final Key<T> key) {
+        if (!deferred.isEmpty()) {
+            activate(key.getTypeLiteral().getRawType());
+        }
         return locator.locate(key, null);
     }
 
+    /**
+     * Returns a live view of the components for a key.
+     *
+     * Not officially part of {@link SmoothieContainer} API, exposed for {@link com.sonatype.matrix.smoothie.internal.extension.DescriptorRegistry}.
+     *
+     * @since 1.1
+     */
+    @SuppressWarnings({"unchecked"})
+    public <Q extends Annotation, T> BeanView<Q,T> view(final Key<T> key) {
+        assert key != null;
+        BeanViewImpl<?,?> view = views.get(key);
+        if (view == null) {
+            synchronized (this) {
+                view = views.get(key);
+                if (view == null) {
+                    view = new BeanViewImpl<Q,T>(this, key);
+                    views.put(key, view);
+                }
+            }
+        }
+        return (BeanView<Q,T>) view;
+    }
+
+    @SuppressWarnings({"unchecked"})
     public <T> T get(final Key<T> key) {
+        // Read before locating, see getEpoch()
+        long current = epoch;
+        Resolved cached = resolved.get(key);
+        if (cached != null && cached.epoch == current) {
+            return (T) cached.value;
+        }
+
         Iterator<QualifiedBean<Annotation,T>> iter = locate(key).iterator();
         assert iter != null;
 
@@ -197,18 +575,69 @@ public class SmoothieContainerImpl
 
             T value = bean.getValue();
 
-            // Complain if there is more than one instance
-            if (iter.hasNext()) {
+            // Complain if there is more than one instance, once per key
+            if (iter.hasNext() && duplicates.add(key)) {
                 log.warn("More than one instance bound for key: {}", key);
                 while (iter.hasNext()) {
-                    bean = iter.next();
-                    log.warn("  {}", bean);
+                    log.warn("  {}", iter.next());
                 }
             }
 
+            if (isSingleton(bean)) {
+                resolved.put(key, new Resolved(current, value));
+            }
+
             return value;
         }
 
         throw new RuntimeException("No object bound for key: " + key);
     }
-}
\ No newline at end of file
+
+    /**
+     * True if the bean always provides the same instance, so it can be cached.
+     */
+    private static boolean isSingleton(final QualifiedBean<?,?> bean) {
+        Binding<?> binding = bean.getBinding();
+        if (binding instanceof InstanceBinding || binding.acceptScopingVisitor(SINGLETON_SCOPING)) {
+            return true;
+        }
+
+        // Linked bindings are unscoped, the scope is on the implementation
+        Class<?> type = bean.getImplementationClass();
+        return type != null && (type.isAnnotationPresent(javax.inject.Singleton.class) || type.isAnnotationPresent(com.google.inject.Singleton.class));
+    }
+
+    private static final BindingScopingVisitor<Boolean> SINGLETON_SCOPING = new BindingScopingVisitor<Boolean>()
+    {
+        public Boolean visitEagerSingleton() {
+            return true;
+        }
+
+        public Boolean visitScope(final Scope scope) {
+            return scope == Scopes.SINGLETON;
+        }
+
+        public Boolean visitScopeAnnotation(final Class<? extends Annotation> annotation) {
+            return annotation == javax.inject.Singleton.class || annotation == com.google.inject.Singleton.class;
+        }
+
+        public Boolean visitNoScoping() {
+            return false;
+        }
+    };
+
+    /**
+     * A singleton resolved by {@link #get}, at a container epoch.
+     */
+    private static class Resolved
+    {
+        private final long epoch;
+
+        private final Object value;
+
+        private Resolved(final long epoch, final Object value) {
+            this.epoch = epoch;
+            this.value = value;
+        }
+    }
+}
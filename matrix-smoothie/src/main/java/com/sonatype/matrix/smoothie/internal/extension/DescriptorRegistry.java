@@ -0,0 +1,235 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sonatype.matrix.smoothie.internal.extension;
+
+import com.google.inject.Key;
+import com.sonatype.matrix.smoothie.BeanView;
+import com.sonatype.matrix.smoothie.SmoothieContainer;
+import com.sonatype.matrix.smoothie.internal.SmoothieContainerImpl;
+import hudson.model.Describable;
+import hudson.model.Descriptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonatype.guice.bean.locators.QualifiedBean;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Registry of the {@link Descriptor} components, indexed by id, by describable class and by describable type.
+ *
+ * Built from a live {@link BeanView}, so descriptors of plugins registered later are found too.  The indexes are
+ * built on first use and rebuilt on the first use after a plugin adds descriptors; they are replaced as a whole, so
+ * lookups only lock while rebuilding.
+ *
+ * Only covers descriptors which are Smoothie components; ie. {@code @Typed(Descriptor.class)}.
+ *
+ * @author <a href="mailto:jason@planet57.com">Jason Dillon</a>
+ * @since 1.1
+ */
+@Named
+@Singleton
+public class DescriptorRegistry
+{
+    private static final Logger log = LoggerFactory.getLogger(DescriptorRegistry.class);
+
+    private final BeanView<Annotation,Descriptor> view;
+
+    private volatile Index index;
+
+    /**
+     * Set when components are added to the view or it is invalidated; the index is then rebuilt on its next use.
+     */
+    private volatile boolean stale;
+
+    @Inject
+    public DescriptorRegistry(final SmoothieContainer container) {
+        assert container != null;
+        this.view = ((SmoothieContainerImpl) container).view(Key.get(Descriptor.class));
+        view.addListener(new BeanView.Listener<Annotation,Descriptor>()
+        {
+            public void added(final BeanView<Annotation,Descriptor> view, final List<QualifiedBean<Annotation,Descriptor>> beans) {
+                // Called while registering a plugin; don't create descriptors here, they may need the container
+                stale = true;
+            }
+
+            public void invalidated(final BeanView<Annotation,Descriptor> view) {
+                // A plugin which may provide descriptors was deferred; reading the view again activates it
+                stale = true;
+            }
+        });
+    }
+
+    private Index index() {
+        Index current = index;
+        if (current == null || stale) {
+            synchronized (this) {
+                current = index;
+                if (current == null || stale) {
+                    // Clear first, so additions while building mark the new index stale
+                    stale = false;
+                    current = new Index(view.getBeans());
+                    index = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Returns the descriptor with the given id, or null.
+     */
+    public Descriptor find(final String id) {
+        assert id != null;
+        return index().byId.get(id);
+    }
+
+    /**
+     * Returns the descriptor of the given describable class, or null.
+     */
+    public Descriptor find(final Class<? extends Describable> type) {
+        assert type != null;
+        return index().byClass.get(type);
+    }
+
+    /**
+     * Returns the descriptor of the describable class with the given name, or null.
+     */
+    public Descriptor findByClassName(final String name) {
+        assert name != null;
+        return index().byClassName.get(name);
+    }
+
+    /**
+     * Returns the descriptors of all describables of the given type; ie. {@link Descriptor#getT}.
+     */
+    public List<Descriptor> all(final Class<? extends Describable> type) {
+        assert type != null;
+        List<Descriptor> descriptors = index().byType.get(type);
+        return descriptors != null ? descriptors : Collections.<Descriptor>emptyList();
+    }
+
+    /**
+     * Returns all descriptors.
+     */
+    public List<Descriptor> all() {
+        return index().all;
+    }
+
+    /**
+     * Immutable descriptor indexes.
+     */
+    private static class Index
+    {
+        private final List<Descriptor> all;
+
+        private final Map<String,Descriptor> byId;
+
+        private final Map<Class<?>,Descriptor> byClass;
+
+        private final Map<String,Descriptor> byClassName;
+
+        private final Map<Class<?>,List<Descriptor>> byType;
+
+        private Index(final List<QualifiedBean<Annotation,Descriptor>> beans) {
+            List<Descriptor> all = new ArrayList<Descriptor>();
+            Set<Descriptor> seen = Collections.newSetFromMap(new IdentityHashMap<Descriptor,Boolean>());
+            Map<String,Descriptor> byId = new HashMap<String,Descriptor>();
+            Map<Class<?>,Descriptor> byClass = new HashMap<Class<?>,Descriptor>();
+            Map<String,Descriptor> byClassName = new HashMap<String,Descriptor>();
+            Map<Class<?>,List<Descriptor>> byType = new HashMap<Class<?>,List<Descriptor>>();
+
+            for (QualifiedBean<Annotation,Descriptor> bean : beans) {
+                Descriptor descriptor;
+                try {
+                    descriptor = bean.getValue();
+                }
+                catch (Exception e) {
+                    log.error("Failed to create descriptor: {}", bean, e);
+                    continue;
+                }
+                // The same descriptor may be bound more than once
+                if (!seen.add(descriptor)) {
+                    continue;
+                }
+                all.add(descriptor);
+
+                // First one wins, as with a linear scan
+                String id = descriptor.getId();
+                if (id != null && !byId.containsKey(id)) {
+                    byId.put(id, descriptor);
+                }
+
+                Class<?> type = descriptor.clazz;
+                if (type != null && !byClass.containsKey(type)) {
+                    byClass.put(type, descriptor);
+                    byClassName.put(type.getName(), descriptor);
+                }
+
+                Class<?> base = describableTypeOf(descriptor);
+                if (base != null) {
+                    List<Descriptor> list = byType.get(base);
+                    if (list == null) {
+                        list = new ArrayList<Descriptor>();
+                        byType.put(base, list);
+                    }
+                    list.add(descriptor);
+                }
+            }
+
+            for (Map.Entry<Class<?>,List<Descriptor>> entry : byType.entrySet()) {
+                entry.setValue(Collections.unmodifiableList(entry.getValue()));
+            }
+
+            this.all = Collections.unmodifiableList(all);
+            this.byId = byId;
+            this.byClass = byClass;
+            this.byClassName = byClassName;
+            this.byType = byType;
+
+            log.debug("Indexed {} descriptors", all.size());
+        }
+
+        private static Class<?> describableTypeOf(final Descriptor descriptor) {
+            try {
+                return descriptor.getT();
+            }
+            catch (Exception e) {
+                // getT() fails for descriptors which do not parameterize their describable type
+                log.trace("Unable to determine describable type of: {}", descriptor, e);
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sonatype.matrix.smoothie.internal.extension;
+
+import com.sonatype.matrix.smoothie.Smoothie;
+import hudson.model.Describable;
+import hudson.model.Descriptor;
+import org.sonatype.guice.bean.locators.QualifiedBean;
+
+import java.lang.annotation.Annotation;
+
+/**
+ * Smoothie component extension holder which does not create the component until its instance is needed.
+ *
+ * Type, priority and {@link #isDescriptorOf} for non-descriptors are answered from the implementation class, so
+ * enumerating an extension point does not build every matching singleton.
+ *
+ * @author <a href="mailto:jason@planet57.com">Jason Dillon</a>
+ * @since 1.1
+ */
+public class LazySmoothieComponent<T>
+    extends SmoothieComponent<T>
+{
+    private final Class<?> type;
+
+    private volatile T instance;
+
+    public LazySmoothieComponent(final QualifiedBean<Annotation,T> item, final Class<?> type) {
+        super(item, Smoothie.priorityOf(type));
+        this.type = type;
+    }
+
+    @Override
+    public T getInstance() {
+        T value = instance;
+        if (value == null) {
+            synchronized (this) {
+                value = instance;
+                if (value == null) {
+                    value = getItem().getValue();
+                    instance = value;
+                }
+            }
+        }
+        return value;
+    }
+
+    /**
+     * True if the component has been created.
+     */
+    public boolean isProvisioned() {
+        return instance != null;
+    }
+
+    @Override
+    public Class<?> getType() {
+        return type;
+    }
+
+    @Override
+    public boolean isDescriptorOf(final Class<? extends Describable> c) {
+        if (!Descriptor.class.isAssignableFrom(type)) {
+            return false;
+        }
+        Object value = getInstance();
+        return value instanceof Descriptor && ((Descriptor) value).isSubTypeOf(c);
+    }
+}
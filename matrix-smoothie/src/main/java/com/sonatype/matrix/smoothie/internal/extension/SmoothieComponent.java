@@ -44,12 +44,27 @@ public class SmoothieComponent<T>
     private final QualifiedBean<Annotation,T> item;
 
     public SmoothieComponent(final QualifiedBean<Annotation,T> item) {
-        super(item.getValue(), Smoothie.priorityOf(item));
+        this(item, item.getValue());
+    }
+
+    private SmoothieComponent(final QualifiedBean<Annotation,T> item, final T value) {
+        super(value, Smoothie.priorityOf(value));
+        this.item = item;
+    }
+
+    /**
+     * For components which provide their instance on demand, by overriding {@link #getInstance}.
+     *
+     * @since 1.1
+     */
+    protected SmoothieComponent(final QualifiedBean<Annotation,T> item, final double priority) {
+        super(null, priority);
+        assert item != null;
         this.item = item;
     }
 
     public Class<?> getType() {
-        return getItem().getValue().getClass();
+        return getInstance().getClass();
     }
 
     public double getPriority() {
@@ -26,9 +26,21 @@ package com.sonatype.matrix.smoothie.internal.extension;
 
 import com.google.inject.Key;
 import com.sonatype.matrix.smoothie.SmoothieContainer;
+import com.sonatype.matrix.smoothie.internal.JMX;
+import com.sonatype.matrix.smoothie.internal.SmoothieContainerImpl;
 import hudson.ExtensionComponent;
 import hudson.ExtensionFinder;
+import hudson.model.AdministrativeMonitor;
+import hudson.model.Descriptor;
 import hudson.model.Hudson;
+import hudson.model.ManagementLink;
+import hudson.model.PageDecorator;
+import hudson.model.PeriodicWork;
+import hudson.model.RootAction;
+import hudson.model.TransientProjectActionFactory;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.RunListener;
+import hudson.model.listeners.SaveableListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sonatype.guice.bean.locators.QualifiedBean;
@@ -38,12 +50,30 @@ import javax.inject.Named;
 import javax.inject.Singleton;
 import java.lang.annotation.Annotation;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Smoothie {@link ExtensionFinder}.
  *
+ * Found components are cached per type, as immutable lists ordered by {@link com.sonatype.matrix.smoothie.Priority},
+ * until the container {@link SmoothieContainerImpl#getEpoch epoch} changes; ie. until another plugin is registered.
+ *
+ * Types which no injector binds, and no deferred plugin may provide, are answered with an empty list without
+ * locating; see {@link SmoothieContainerImpl#mayProvide}.  Counters are available over JMX as {@link #OBJECT_NAME}.
+ *
+ * Components with a known implementation class are found as {@link LazySmoothieComponent}s, which are only created
+ * when their instance is first asked for.
+ *
+ * Several types can be found at once with {@link #findAll}, or in the background with {@link #warmup}; see
+ * {@link #COMMON_TYPES} for the extension points Hudson always looks up during startup.
+ *
  * @author <a href="mailto:jason@planet57.com">Jason Dillon</a>
  * @since 0.2
  */
@@ -51,15 +81,86 @@ import java.util.List;
 @Singleton
 public class SmoothieExtensionFinder
     extends ExtensionFinder
+    implements SmoothieExtensionFinderMBean
 {
     private static final Logger log = LoggerFactory.getLogger(SmoothieExtensionFinder.class);
 
+    public static final String OBJECT_NAME = "com.sonatype.matrix.smoothie:type=ExtensionFinder";
+
+    /**
+     * Set to {@code false} to create all components when they are found.
+     */
+    public static final boolean LAZY = Boolean.parseBoolean(System.getProperty(SmoothieExtensionFinder.class.getName() + ".lazy", "true"));
+
+    /**
+     * Set to {@code true} to warm the {@link #COMMON_TYPES} in the background once Hudson has loaded all plugins.
+     */
+    public static final boolean WARMUP = Boolean.parseBoolean(System.getProperty(SmoothieExtensionFinder.class.getName() + ".warmup", "false"));
+
+    /**
+     * Extension points Hudson looks up during startup.
+     */
+    public static final List<Class<?>> COMMON_TYPES = Collections.unmodifiableList(Arrays.<Class<?>>asList(
+        Descriptor.class,
+        RootAction.class,
+        ManagementLink.class,
+        PageDecorator.class,
+        AdministrativeMonitor.class,
+        PeriodicWork.class,
+        TransientProjectActionFactory.class,
+        ItemListener.class,
+        RunListener.class,
+        SaveableListener.class
+    ));
+
     private final SmoothieContainer container;
 
+    /**
+     * Highest priority first, as {@link ExtensionComponent#compareTo} orders.
+     */
+    private static final Comparator<ExtensionComponent<?>> BY_PRIORITY = new Comparator<ExtensionComponent<?>>()
+    {
+        public int compare(final ExtensionComponent<?> a, final ExtensionComponent<?> b) {
+            return Double.compare(b.ordinal(), a.ordinal());
+        }
+    };
+
+    private final Map<Class<?>,Snapshot> snapshots = new ConcurrentHashMap<Class<?>,Snapshot>();
+
+    private final AtomicLong unboundHits = new AtomicLong();
+
+    private final AtomicLong cacheHits = new AtomicLong();
+
+    private final AtomicLong located = new AtomicLong();
+
     @Inject
     public SmoothieExtensionFinder(final SmoothieContainer container) {
         assert container != null;
         this.container = container;
+        JMX.register(this, OBJECT_NAME);
+    }
+
+    /**
+     * Components found for a type, at a container epoch.
+     */
+    private static class Snapshot
+    {
+        private final long epoch;
+
+        private final List<?> components;
+
+        private Snapshot(final long epoch, final List<?> components) {
+            this.epoch = epoch;
+            this.components = components;
+        }
+    }
+
+    private boolean isUnbound(final Class<?> type) {
+        return container instanceof SmoothieContainerImpl && !((SmoothieContainerImpl) container).mayProvide(type);
+    }
+
+    private long epoch() {
+        return container instanceof SmoothieContainerImpl ? ((SmoothieContainerImpl) container).getEpoch() : -1;
     }
 
     /**
@@ -69,6 +170,87 @@ public class SmoothieExtensionFinder
     public <T> Collection<ExtensionComponent<T>> find(final Class<T> type, final Hudson hudson) {
         assert type != null;
 
+        // Read before locating, see SmoothieContainerImpl.getEpoch()
+        return find(type, epoch());
+    }
+
+    /**
+     * Find the extensions of all the given types at once, filling the per-type caches.
+     *
+     * All types are resolved against the same container epoch; types already cached for it are skipped.
+     *
+     * @return  The number of types which had to be located.
+     *
+     * @since 1.1
+     */
+    public int findAll(final Collection<? extends Class<?>> types) {
+        assert types != null;
+
+        long epoch = epoch();
+        int located = 0;
+        for (Class<?> type : types) {
+            Snapshot snapshot = snapshots.get(type);
+            if ((snapshot == null || snapshot.epoch != epoch) && !isUnbound(type)) {
+                find(type, epoch);
+                located++;
+            }
+        }
+
+        log.debug("Prefetched {} of {} extension types", located, types.size());
+        return located;
+    }
+
+    /**
+     * Find the extensions of the given types in a background thread.
+     *
+     * Only done when components are found {@link #LAZY lazily}, so warming does not create any component.
+     *
+     * @return  The started thread, or null if warming is not possible.
+     *
+     * @since 1.1
+     */
+    public Thread warmup(final Collection<? extends Class<?>> types) {
+        assert types != null;
+
+        if (!LAZY) {
+            log.debug("Components are not found lazily; not warming extension types");
+            return null;
+        }
+
+        Thread thread = new Thread("smoothie-extension-warmup")
+        {
+            @Override
+            public void run() {
+                try {
+                    findAll(types);
+                }
+                catch (Throwable e) {
+                    log.warn("Failed to warm extension types", e);
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+        return thread;
+    }
+
+    @SuppressWarnings({"unchecked"})
+    private <T> Collection<ExtensionComponent<T>> find(final Class<T> type, final long epoch) {
+        // Most extension points have no components at all, skip them w/o locating
+        if (isUnbound(type)) {
+            unboundHits.incrementAndGet();
+            return Collections.emptyList();
+        }
+
+        Snapshot snapshot = snapshots.get(type);
+        if (snapshot != null && snapshot.epoch == epoch) {
+            cacheHits.incrementAndGet();
+            return (List<ExtensionComponent<T>>) snapshot.components;
+        }
+
+        located.incrementAndGet();
+
         if (log.isTraceEnabled()) {
             log.trace("Finding extensions: {}", type.getName());
         }
@@ -78,7 +260,7 @@ public class SmoothieExtensionFinder
             Iterable<QualifiedBean<Annotation,T>> items = container.locate(Key.get(type));
             for (QualifiedBean<Annotation,T> item : items) {
                 // Use our container for extendability and logging simplicity.
-                SmoothieComponent<T> component = new SmoothieComponent<T>(item);
+                SmoothieComponent<T> component = createComponent(item);
                 log.trace("Found: {}", component);
                 components.add(component);
             }
@@ -89,8 +271,46 @@ public class SmoothieExtensionFinder
         }
         catch (Exception e) {
             log.error("Extension discovery failed", e);
+            // Don't cache failures
+            return components;
         }
 
+        // Sort once per snapshot; stable so equal priorities keep the container order
+        Collections.sort(components, BY_PRIORITY);
+        components = Collections.unmodifiableList(components);
+        if (epoch != -1) {
+            snapshots.put(type, new Snapshot(epoch, components));
+        }
         return components;
     }
+
+    //
+    // SmoothieExtensionFinderMBean
+    //
+
+    public long getUnboundHits() {
+        return unboundHits.get();
+    }
+
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public long getLocated() {
+        return located.get();
+    }
+
+    public int getCachedTypes() {
+        return snapshots.size();
+    }
+
+    private static <T> SmoothieComponent<T> createComponent(final QualifiedBean<Annotation,T> item) {
+        if (LAZY) {
+            Class<?> type = item.getImplementationClass();
+            if (type != null) {
+                return new LazySmoothieComponent<T>(item, type);
+            }
+        }
+        return new SmoothieComponent<T>(item);
+    }
 }
\ No newline at end of file
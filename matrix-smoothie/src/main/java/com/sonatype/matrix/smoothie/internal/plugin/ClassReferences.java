@@ -0,0 +1,143 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sonatype.matrix.smoothie.internal.plugin;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Reads the types a class file references from its constant pool.
+ *
+ * Covers class constants and the types in descriptors and signatures, which includes annotation types; ie.
+ * anything the class may need to link.
+ *
+ * @author <a href="mailto:jason@planet57.com">Jason Dillon</a>
+ * @since 1.1
+ */
+class ClassReferences
+{
+    private static final int MAGIC = 0xCAFEBABE;
+
+    /**
+     * Add the class file paths of the types the given class file references.
+     */
+    static void read(final InputStream stream, final Set<String> references) throws IOException {
+        assert stream != null;
+        assert references != null;
+
+        DataInputStream input = new DataInputStream(stream);
+        if (input.readInt() != MAGIC) {
+            throw new IOException("Not a class file");
+        }
+        input.readUnsignedShort();
+        input.readUnsignedShort();
+
+        int count = input.readUnsignedShort();
+        String[] strings = new String[count];
+        List<Integer> classes = new ArrayList<Integer>();
+        for (int i = 1; i < count; i++) {
+            int tag = input.readUnsignedByte();
+            switch (tag) {
+                case 1: // Utf8
+                    strings[i] = input.readUTF();
+                    break;
+                case 7: // Class
+                    classes.add(input.readUnsignedShort());
+                    break;
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    input.readUnsignedShort();
+                    break;
+                case 15: // MethodHandle
+                    input.readUnsignedByte();
+                    input.readUnsignedShort();
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    input.readInt();
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    input.readLong();
+                    i++;
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag: " + tag);
+            }
+        }
+
+        for (int index : classes) {
+            String name = strings[index];
+            if (name == null) {
+                continue;
+            }
+            if (name.startsWith("[")) {
+                addDescriptorTypes(name, references);
+            }
+            else {
+                references.add(name.concat(".class"));
+            }
+        }
+        for (String value : strings) {
+            if (value != null && value.indexOf(';') != -1) {
+                addDescriptorTypes(value, references);
+            }
+        }
+    }
+
+    /**
+     * Add the {@code Lname;} types of a descriptor or signature; other strings may add bogus names, which are
+     * harmless as they are never found.
+     */
+    private static void addDescriptorTypes(final String value, final Set<String> references) {
+        int start = value.indexOf('L');
+        while (start != -1) {
+            int end = start + 1;
+            while (end < value.length() && isNameChar(value.charAt(end))) {
+                end++;
+            }
+            if (end < value.length() && end > start + 1 && (value.charAt(end) == ';' || value.charAt(end) == '<')) {
+                references.add(value.substring(start + 1, end).concat(".class"));
+            }
+            start = value.indexOf('L', end);
+        }
+    }
+
+    private static boolean isNameChar(final char c) {
+        return c != ';' && c != '<' && c != '>' && c != '(' && c != ')' && c != '[' && c != ':' && c != '.' && !Character.isWhitespace(c);
+    }
+}
@@ -0,0 +1,186 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sonatype.matrix.smoothie.internal.plugin;
+
+import com.sonatype.matrix.smoothie.internal.space.ClassPathIndex;
+import com.sonatype.matrix.smoothie.internal.space.JarFilePool;
+import hudson.PluginWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tells a {@link PluginClassLoader} which paths its parent can not possibly provide, so it may skip parent-first
+ * delegation for them.
+ *
+ * The parent chain is indexed as a whole, down to the boot class path.  Plugin dependencies, reached through
+ * Hudson's dependency class-loader, are answered from their own {@link PluginClassLoader} indexes.  Hints are
+ * per class file, not per package, so packages split between the parent and the plugin stay correct.  If any
+ * part of the chain can not be indexed the parent is always consulted.  This is always the case on Java 9 and newer,
+ * which have neither a {@code sun.boot.class.path} nor a {@link URLClassLoader} system class-loader.
+ *
+ * @author <a href="mailto:jason@planet57.com">Jason Dillon</a>
+ * @since 1.1
+ */
+public class DelegationHints
+{
+    private static final Logger log = LoggerFactory.getLogger(DelegationHints.class);
+
+    public static final boolean DISABLED = Boolean.parseBoolean(System.getProperty(DelegationHints.class.getName() + ".disabled", "false"));
+
+    private static final String DEPENDENCY_LOADER = "hudson.ClassicPluginStrategy$DependencyClassLoader";
+
+    /**
+     * Why hints are unavailable is only logged once, as it is the same for every plugin.
+     */
+    private static final AtomicBoolean unavailableReported = new AtomicBoolean();
+
+    private final ClassPathIndex chain;
+
+    private final boolean dependencies;
+
+    private volatile PluginWrapper plugin;
+
+    /**
+     * @param chain         Index of the parent chain, see {@link #indexChain}
+     * @param dependencies  True if the parent delegates to the dependencies of the plugin
+     */
+    public DelegationHints(final ClassPathIndex chain, final boolean dependencies) {
+        assert chain != null;
+        this.chain = chain;
+        this.dependencies = dependencies;
+    }
+
+    void setPlugin(final PluginWrapper plugin) {
+        assert plugin != null;
+        this.plugin = plugin;
+    }
+
+    /**
+     * True if the given loader is Hudson's class-loader which delegates to the dependencies of a plugin.
+     */
+    public static boolean isDependencyLoader(final ClassLoader loader) {
+        return loader != null && DEPENDENCY_LOADER.equals(loader.getClass().getName());
+    }
+
+    /**
+     * Index all classpath entries visible from the given loader, including the boot class path.
+     *
+     * @return  The index, or null if the chain contains loaders which can not be indexed.
+     */
+    public static ClassPathIndex indexChain(final ClassLoader loader, final JarFilePool pool) {
+        assert pool != null;
+
+        List<URL> urls = new ArrayList<URL>();
+        for (ClassLoader cl = loader; cl != null; cl = cl.getParent()) {
+            if (!(cl instanceof URLClassLoader)) {
+                unavailable("parent class-loader can not be indexed: " + cl.getClass().getName());
+                return null;
+            }
+            urls.addAll(Arrays.asList(((URLClassLoader) cl).getURLs()));
+        }
+
+        String boot = System.getProperty("sun.boot.class.path");
+        if (boot == null) {
+            // Java 9 and newer have no boot class path property
+            unavailable("boot class path is not available");
+            return null;
+        }
+        for (String path : boot.split(File.pathSeparator)) {
+            File file = new File(path);
+            if (file.exists()) {
+                try {
+                    urls.add(file.toURI().toURL());
+                }
+                catch (Exception e) {
+                    log.debug("Unable to index boot class path entry: {}", file, e);
+                    return null;
+                }
+            }
+        }
+
+        return new ClassPathIndex(urls.toArray(new URL[urls.size()]), pool);
+    }
+
+    private static void unavailable(final String reason) {
+        if (unavailableReported.compareAndSet(false, true)) {
+            log.debug("Delegation hints disabled; {}", reason);
+        }
+        else {
+            log.trace("Delegation hints disabled; {}", reason);
+        }
+    }
+
+    /**
+     * True if a loader of the parent chain, or a dependency of the plugin, may provide the given path.
+     */
+    public boolean parentMayProvide(final String path) {
+        assert path != null;
+
+        if (!chain.isUsable() || chain.sourceOf(path) != null) {
+            return true;
+        }
+
+        if (dependencies) {
+            PluginWrapper plugin = this.plugin;
+            if (plugin == null) {
+                return true;
+            }
+            if (dependencyMayProvide(plugin, plugin.getDependencies(), path)
+                || dependencyMayProvide(plugin, plugin.getOptionalDependencies(), path)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean dependencyMayProvide(final PluginWrapper plugin, final List/*<PluginWrapper.Dependency>*/ dependencies, final String path) {
+        if (dependencies == null) {
+            return false;
+        }
+        for (Object item : dependencies) {
+            PluginWrapper dependency = plugin.parent.getPlugin(((PluginWrapper.Dependency) item).shortName);
+            if (dependency == null) {
+                // Not installed, the dependency class-loader skips it too
+                continue;
+            }
+            if (!(dependency.classLoader instanceof PluginClassLoader)) {
+                return true;
+            }
+            if (((PluginClassLoader) dependency.classLoader).mayProvide(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
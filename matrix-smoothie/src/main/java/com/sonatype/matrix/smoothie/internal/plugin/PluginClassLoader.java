@@ -24,25 +24,396 @@
 
 package com.sonatype.matrix.smoothie.internal.plugin;
 
+import com.sonatype.matrix.smoothie.internal.space.ClassPathIndex;
+import com.sonatype.matrix.smoothie.internal.space.JarFilePool;
 import hudson.PluginWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.Manifest;
 
 /**
  * Plugin class-loader.
  *
+ * Classes and resources are found through a {@link ClassPathIndex}, so lookups go straight to the entry which
+ * contains them instead of trying each jar in turn.  If the classpath can not be indexed the normal
+ * {@link URLClassLoader} behavior is used.
+ *
+ * Parent-first delegation is skipped for classes which the parent is known not to have, either from
+ * {@link DelegationHints} or because the parent already failed to load them once.
+ *
+ * On Java 7 and newer the loader is registered as parallel capable; classes are loaded under the VM's lock per class
+ * name, see {@code ClassLoader.getClassLoadingLock()}, so concurrent loads of different classes do not serialize on
+ * the loader.  Before Java 7 the loader itself is locked, as the VM does.
+ *
+ * Classes of jars shared with other plugins, see {@link SharedLibraries}, are loaded from the shared loader after
+ * the parent and before the loader's own classpath, which still lists the shared jars.
+ *
  * @author <a href="mailto:jason@planet57.com">Jason Dillon</a>
  * @since 1.1
  */
 public class PluginClassLoader
     extends URLClassLoader
 {
+    private static final Logger log = LoggerFactory.getLogger(PluginClassLoader.class);
+
+    /**
+     * Maximum number of parent misses remembered per loader.
+     */
+    public static final int PARENT_MISSES = Integer.getInteger(PluginClassLoader.class.getName() + ".parentMisses", 1024);
+
+    /**
+     * {@code ClassLoader.getClassLoadingLock(String)}, or null before Java 7.
+     */
+    private static final Method CLASS_LOADING_LOCK;
+
+    static {
+        registerParallelCapable();
+        CLASS_LOADING_LOCK = classLoadingLockMethod();
+    }
+
+    private static Method classLoadingLockMethod() {
+        try {
+            Method method = ClassLoader.class.getDeclaredMethod("getClassLoadingLock", String.class);
+            method.setAccessible(true);
+            return method;
+        }
+        catch (NoSuchMethodException e) {
+            return null;
+        }
+        catch (Exception e) {
+            log.debug("Unable to access getClassLoadingLock", e);
+            return null;
+        }
+    }
+
+    /**
+     * Calls {@code ClassLoader.registerAsParallelCapable()} if available, which is Java 7 API.
+     */
+    private static void registerParallelCapable() {
+        Method method = parallelCapableMethod();
+        if (method != null) {
+            try {
+                method.invoke(null);
+            }
+            catch (Exception e) {
+                log.debug("Unable to register as parallel capable", e);
+            }
+        }
+    }
+
+    /**
+     * Returns {@code ClassLoader.registerAsParallelCapable()}, or null before Java 7 where the VM locks the loader.
+     *
+     * It registers the class which invokes it, so each loader class must invoke it from its own static initializer.
+     */
+    static Method parallelCapableMethod() {
+        try {
+            Method method = ClassLoader.class.getDeclaredMethod("registerAsParallelCapable");
+            method.setAccessible(true);
+            return method;
+        }
+        catch (NoSuchMethodException e) {
+            return null;
+        }
+        catch (Exception e) {
+            log.debug("Unable to access registerAsParallelCapable", e);
+            return null;
+        }
+    }
+
     private PluginWrapper plugin;
 
-    public PluginClassLoader(final List<URL> urls, final ClassLoader parent) {
+    private final ClassPathIndex index;
+
+    private final DelegationHints hints;
+
+    private final SharedLibraries.View shared;
+
+    /**
+     * Names of classes the parent failed to load; the least recently used are forgotten once full.
+     */
+    private final Map<String,Boolean> parentMisses = Collections.synchronizedMap(new LinkedHashMap<String,Boolean>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String,Boolean> eldest) {
+            return size() > PARENT_MISSES;
+        }
+    });
+
+    private final AtomicLong parentSkips = new AtomicLong();
+
+    private final AtomicLong parentLookups = new AtomicLong();
+
+    /**
+     * @param hints     Optional hints about what the parent provides; may be null
+     * @param shared    Optional shared jars of the plugin; may be null
+     */
+    public PluginClassLoader(final List<URL> urls, final ClassLoader parent, final JarFilePool pool, final DelegationHints hints,
+                             final SharedLibraries.View shared)
+    {
         super(urls.toArray(new URL[urls.size()]), parent);
+        this.index = new ClassPathIndex(getURLs(), pool);
+        this.hints = hints;
+        this.shared = shared;
+    }
+
+    public PluginClassLoader(final List<URL> urls, final ClassLoader parent, final JarFilePool pool, final DelegationHints hints) {
+        this(urls, parent, pool, hints, null);
+    }
+
+    public PluginClassLoader(final List<URL> urls, final ClassLoader parent) {
+        this(urls, parent, new JarFilePool(Math.max(urls.size(), 1)), null, null);
+    }
+
+    /**
+     * Returns the index of this loader's classpath, for sharing with the class-space scanner.
+     */
+    public ClassPathIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the lock to load the given class under; the loader itself unless it is parallel capable.
+     */
+    private Object lockFor(final String name) {
+        if (CLASS_LOADING_LOCK != null) {
+            try {
+                return CLASS_LOADING_LOCK.invoke(this, name);
+            }
+            catch (Exception e) {
+                log.trace("Unable to get class loading lock for: {}", name, e);
+            }
+        }
+        return this;
+    }
+
+    @Override
+    protected Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+        ClassLoader parent = getParent();
+        if (parent == null) {
+            return super.loadClass(name, resolve);
+        }
+
+        synchronized (lockFor(name)) {
+            return loadClass(name, resolve, parent);
+        }
+    }
+
+    private Class<?> loadClass(final String name, final boolean resolve, final ClassLoader parent) throws ClassNotFoundException {
+        Class<?> type = findLoadedClass(name);
+        if (type == null) {
+            if (shouldDelegate(name)) {
+                parentLookups.incrementAndGet();
+                try {
+                    type = parent.loadClass(name);
+                }
+                catch (ClassNotFoundException e) {
+                    parentMisses.put(name, Boolean.TRUE);
+                }
+            }
+            else {
+                parentSkips.incrementAndGet();
+            }
+
+            if (type == null && shared != null && shared.contains(name.replace('.', '/').concat(".class"))) {
+                try {
+                    type = shared.loadClass(name);
+                }
+                catch (ClassNotFoundException e) {
+                    // ignore, try our own
+                }
+            }
+
+            if (type == null) {
+                type = findClass(name);
+            }
+        }
+
+        if (resolve) {
+            resolveClass(type);
+        }
+        return type;
+    }
+
+    private boolean shouldDelegate(final String name) {
+        if (parentMisses.get(name) != null) {
+            return false;
+        }
+        return hints == null || hints.parentMayProvide(name.replace('.', '/').concat(".class"));
+    }
+
+    /**
+     * True if this loader, or its parent, may provide the given path.
+     */
+    boolean mayProvide(final String path) {
+        if (!index.isUsable() || index.sourceOf(path) != null || (shared != null && shared.contains(path))) {
+            return true;
+        }
+        return hints == null || hints.parentMayProvide(path);
+    }
+
+    /**
+     * Returns the number of class loads which were delegated to the parent.
+     */
+    public long getParentLookups() {
+        return parentLookups.get();
+    }
+
+    /**
+     * Returns the number of class loads which skipped the parent.
+     */
+    public long getParentSkips() {
+        return parentSkips.get();
+    }
+
+    @Override
+    protected Class<?> findClass(final String name) throws ClassNotFoundException {
+        if (!index.isUsable()) {
+            return super.findClass(name);
+        }
+
+        String path = name.replace('.', '/').concat(".class");
+        ClassPathIndex.Source source = index.sourceOf(path);
+        if (source == null) {
+            throw new ClassNotFoundException(name);
+        }
+
+        try {
+            return defineClass(name, path, source);
+        }
+        catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+        }
+    }
+
+    private Class<?> defineClass(final String name, final String path, final ClassPathIndex.Source source) throws IOException {
+        int i = name.lastIndexOf('.');
+        if (i != -1) {
+            definePackage(name.substring(0, i), source);
+        }
+
+        ClassPathIndex.Resource resource = source.read(path);
+        byte[] bytes = resource.getBytes();
+        CodeSource codeSource = new CodeSource(source.getUrl(), resource.getSigners());
+        return defineClass(name, bytes, 0, bytes.length, codeSource);
+    }
+
+    private void definePackage(final String name, final ClassPathIndex.Source source) throws IOException {
+        if (getPackage(name) != null) {
+            return;
+        }
+
+        try {
+            Manifest manifest = source.getManifest();
+            if (manifest != null) {
+                definePackage(name, manifest, source.getUrl());
+            }
+            else {
+                definePackage(name, null, null, null, null, null, null, null);
+            }
+        }
+        catch (IllegalArgumentException e) {
+            // Already defined by a concurrent load
+            if (getPackage(name) == null) {
+                throw e;
+            }
+        }
+    }
+
+    private ClassPathIndex.Source sharedSource(final String name) {
+        return shared != null ? shared.getIndex().sourceOf(name) : null;
+    }
+
+    @Override
+    public URL findResource(final String name) {
+        ClassPathIndex.Source source = sharedSource(name);
+        if (source == null) {
+            if (!index.isUsable()) {
+                return super.findResource(name);
+            }
+            source = index.sourceOf(name);
+        }
+        if (source == null) {
+            // Directories are not indexed
+            return index.isDirectory(name) ? super.findResource(name) : null;
+        }
+
+        try {
+            return source.urlOf(name);
+        }
+        catch (IOException e) {
+            return super.findResource(name);
+        }
+    }
+
+    /**
+     * Streams resources of this loader from the {@link JarFilePool}, instead of via a {@code jar:} URL which
+     * would keep its own handle to the jar open.  The jar stays borrowed until the stream is closed.
+     */
+    @Override
+    public InputStream getResourceAsStream(final String name) {
+        ClassLoader parent = getParent();
+        if (parent == null || !index.isUsable()) {
+            return super.getResourceAsStream(name);
+        }
+
+        InputStream input = parent.getResourceAsStream(name);
+        if (input != null) {
+            return input;
+        }
+
+        ClassPathIndex.Source source = sharedSource(name);
+        if (source == null) {
+            source = index.sourceOf(name);
+        }
+        if (source == null) {
+            return index.isDirectory(name) ? super.getResourceAsStream(name) : null;
+        }
+
+        try {
+            return source.open(name);
+        }
+        catch (IOException e) {
+            log.warn("Failed to read resource: {} from: {}", new Object[] { name, source, e });
+            return null;
+        }
+    }
+
+    @Override
+    public Enumeration<URL> findResources(final String name) throws IOException {
+        List<URL> result = new ArrayList<URL>();
+        if (shared != null) {
+            for (ClassPathIndex.Source source : shared.getIndex().sourcesOf(name)) {
+                result.add(source.urlOf(name));
+            }
+        }
+
+        if (!index.isUsable() || index.isDirectory(name)) {
+            result.addAll(Collections.list(super.findResources(name)));
+        }
+        else {
+            for (ClassPathIndex.Source source : index.sourcesOf(name)) {
+                // Already found in the shared copy
+                if (shared == null || !shared.isCopy(source.getUrl())) {
+                    result.add(source.urlOf(name));
+                }
+            }
+        }
+        return Collections.enumeration(result);
     }
 
     public PluginWrapper getPlugin() {
@@ -58,6 +429,9 @@ public class PluginClassLoader
             throw new IllegalStateException();
         }
         this.plugin = plugin;
+        if (hints != null) {
+            hints.setPlugin(plugin);
+        }
     }
 
     @Override
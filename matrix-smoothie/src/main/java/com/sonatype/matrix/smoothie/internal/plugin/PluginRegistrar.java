@@ -0,0 +1,613 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sonatype.matrix.smoothie.internal.plugin;
+
+import com.google.inject.Injector;
+import com.sonatype.matrix.smoothie.SmoothieContainer;
+import com.sonatype.matrix.smoothie.internal.SmoothieContainerImpl;
+import hudson.PluginWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registers plugins with the {@link SmoothieContainer}.
+ *
+ * When parallel registration is enabled (the default) the first call to {@link #register} starts building the
+ * injectors of all {@link #prepare prepared} plugins concurrently on a bounded pool.  Tasks follow the
+ * {@link PluginWrapper#getDependencies} graph, and a plugin's injector is only built once Hudson has registered all
+ * of its scheduled dependencies, so injector creation sees the same components in the container as when registering
+ * serially.  When Hudson loads a plugin before its injector was started it is built on the calling thread.
+ * Injectors are only added to the container when Hudson loads their plugin, so plugins Hudson refuses to load are
+ * never registered, and registration and deferral happen in Hudson's load order as when registering serially.
+ * Plugins which were not prepared, or which could not be scheduled (missing dependencies, cycles), are registered
+ * serially when asked for.  Once every scheduled plugin has been registered, or {@link #failed failed} or depends on
+ * one which failed, loading is finished; the pool is shut down and {@link #whenLoaded} tasks are run.
+ *
+ * When lazy registration is enabled plugins without a {@link hudson.Plugin} class are not scheduled, but are
+ * {@link SmoothieContainerImpl#defer deferred} instead, so their injector is only built once something needs it.
+ * Plugins with a {@link hudson.Plugin} class are always registered eagerly, as Hudson expects them to be started.
+ *
+ * Configure with system properties:
+ * <ul>
+ * <li>{@code com.sonatype.matrix.smoothie.internal.plugin.PluginRegistrar.parallel} - {@code false} to disable
+ * <li>{@code com.sonatype.matrix.smoothie.internal.plugin.PluginRegistrar.threads} - number of worker threads
+ * <li>{@code com.sonatype.matrix.smoothie.internal.plugin.PluginRegistrar.lazy} - {@code true} to enable lazy registration
+ * </ul>
+ *
+ * @author <a href="mailto:jason@planet57.com">Jason Dillon</a>
+ * @since 1.1
+ */
+@Named
+@Singleton
+public class PluginRegistrar
+{
+    private static final Logger log = LoggerFactory.getLogger(PluginRegistrar.class);
+
+    public static final boolean PARALLEL = Boolean.parseBoolean(System.getProperty(PluginRegistrar.class.getName() + ".parallel", "true"));
+
+    public static final int THREADS = Integer.getInteger(PluginRegistrar.class.getName() + ".threads", Runtime.getRuntime().availableProcessors());
+
+    public static final boolean LAZY = Boolean.parseBoolean(System.getProperty(PluginRegistrar.class.getName() + ".lazy", "false"));
+
+    private final SmoothieContainerImpl container;
+
+    private final List<PluginWrapper> prepared = new ArrayList<PluginWrapper>();
+
+    /**
+     * Scheduled registrations which Hudson has not asked for yet; null until the pipeline has been started.
+     */
+    private Map<PluginWrapper,Task> tasks;
+
+    /**
+     * The running pipeline; null until started and once loading has finished.
+     */
+    private Pipeline pipeline;
+
+    /**
+     * Plugins Hudson is expected to load, by name, which it has not yet; null until the pipeline has been started.
+     */
+    private Map<String,PluginWrapper> loading;
+
+    private boolean loaded;
+
+    private final List<Runnable> whenLoaded = new ArrayList<Runnable>();
+
+    @Inject
+    public PluginRegistrar(final SmoothieContainer container) {
+        assert container != null;
+        this.container = (SmoothieContainerImpl) container;
+    }
+
+    /**
+     * Make the registrar aware of a plugin, to be included when the pipeline starts.
+     */
+    public synchronized void prepare(final PluginWrapper plugin) {
+        assert plugin != null;
+
+        if (tasks != null) {
+            log.debug("Registration already started; plugin will be registered serially: {}", plugin.getShortName());
+            return;
+        }
+
+        prepared.add(plugin);
+    }
+
+    /**
+     * Register a plugin with the container, waiting for its scheduled injector to be built if needed.
+     */
+    public void register(final PluginWrapper plugin) throws IOException {
+        assert plugin != null;
+
+        Task task = claim(plugin);
+        if (task != null) {
+            // Hudson got here first, build on this thread instead of waiting for the dependencies
+            if (task.start()) {
+                task.build(false);
+            }
+
+            Injector injector;
+            long start = System.nanoTime();
+            try {
+                injector = task.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while registering plugin: " + plugin.getShortName());
+            }
+            finally {
+                task.pipeline.waited.addAndGet(System.nanoTime() - start);
+            }
+            container.register(plugin, injector);
+        }
+        else if (isLazy(plugin)) {
+            container.defer(plugin);
+        }
+        else {
+            container.register(plugin);
+        }
+
+        registered(plugin, task);
+    }
+
+    /**
+     * Run the given task once Hudson has loaded all prepared plugins, or right away if it already has.
+     *
+     * Tasks are run on the thread loading the last plugin, and should not block.
+     */
+    public synchronized void whenLoaded(final Runnable task) {
+        assert task != null;
+
+        if (loaded) {
+            task.run();
+        }
+        else {
+            whenLoaded.add(task);
+        }
+    }
+
+    /**
+     * Tell the registrar Hudson failed to load a plugin, so plugins requiring it will never be loaded.
+     */
+    public synchronized void failed(final PluginWrapper plugin) {
+        assert plugin != null;
+
+        if (tasks == null) {
+            return;
+        }
+
+        drop(plugin);
+
+        // Drop everything which requires the failed plugin, Hudson will refuse to load them
+        Set<String> failed = new HashSet<String>();
+        failed.add(plugin.getShortName());
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Iterator<PluginWrapper> iter = loading.values().iterator(); iter.hasNext();) {
+                PluginWrapper dependent = iter.next();
+                for (PluginWrapper.Dependency dependency : requiredDependenciesOf(dependent)) {
+                    if (failed.contains(dependency.shortName)) {
+                        log.debug("Dropping {}; dependency failed to load: {}", dependent.getShortName(), dependency.shortName);
+                        iter.remove();
+                        drop(dependent);
+                        failed.add(dependent.getShortName());
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+
+        finishIfDone();
+    }
+
+    /**
+     * Wait for the injectors of all scheduled plugins whose dependencies have been registered to be built.
+     */
+    void awaitStarted() throws InterruptedException {
+        List<Task> started = new ArrayList<Task>();
+        synchronized (this) {
+            for (Task task : start().values()) {
+                if (task.pending.get() == 0) {
+                    started.add(task);
+                }
+            }
+        }
+        for (Task task : started) {
+            task.done.await();
+        }
+    }
+
+    /**
+     * Returns the scheduled plugins Hudson has not loaded yet, in an order where each comes after its dependencies.
+     */
+    synchronized List<PluginWrapper> getScheduled() {
+        return new ArrayList<PluginWrapper>(start().keySet());
+    }
+
+    /**
+     * Returns true if the injector of the given scheduled plugin has been started.
+     */
+    synchronized boolean isStarted(final PluginWrapper plugin) {
+        Task task = start().get(plugin);
+        return task != null && task.isStarted();
+    }
+
+    private static boolean isLazy(final PluginWrapper plugin) {
+        return LAZY && plugin.getPluginClass() == null;
+    }
+
+    /**
+     * Start the pipeline if not already started.
+     */
+    private synchronized Map<PluginWrapper,Task> start() {
+        if (tasks != null) {
+            return tasks;
+        }
+
+        loading = loadable();
+        prepared.clear();
+
+        if (!PARALLEL || THREADS < 2) {
+            log.debug("Parallel registration disabled");
+            tasks = new HashMap<PluginWrapper,Task>();
+            return tasks;
+        }
+
+        tasks = schedule(loading);
+
+        if (!tasks.isEmpty()) {
+            pipeline = new Pipeline(tasks.values());
+            pipeline.start();
+        }
+
+        return tasks;
+    }
+
+    /**
+     * Take the scheduled task of a plugin, if there is one.
+     */
+    private synchronized Task claim(final PluginWrapper plugin) {
+        return start().remove(plugin);
+    }
+
+    /**
+     * Drop the scheduled task of a plugin Hudson will not load, if there is one.
+     */
+    private void drop(final PluginWrapper plugin) {
+        Task task = tasks.remove(plugin);
+        if (task != null) {
+            task.start();
+        }
+        loading.remove(plugin.getShortName());
+    }
+
+    /**
+     * Start the dependents of a registered plugin which are now ready.
+     */
+    private synchronized void registered(final PluginWrapper plugin, final Task task) {
+        if (task != null) {
+            for (Task dependent : task.dependents) {
+                if (dependent.pending.decrementAndGet() == 0 && !dependent.isStarted()) {
+                    task.pipeline.execute(dependent);
+                }
+            }
+        }
+
+        loading.remove(plugin.getShortName());
+        finishIfDone();
+    }
+
+    /**
+     * Once nothing is left for Hudson to load shut down the pipeline, dropping references to all tasks, and run the
+     * {@link #whenLoaded} tasks.
+     */
+    private void finishIfDone() {
+        if (loaded || !loading.isEmpty()) {
+            return;
+        }
+
+        if (pipeline != null) {
+            pipeline.finish();
+            pipeline = null;
+        }
+
+        loaded = true;
+        log.debug("All plugins loaded");
+        for (Runnable task : whenLoaded) {
+            task.run();
+        }
+        whenLoaded.clear();
+    }
+
+    /**
+     * Returns the active prepared plugins Hudson will load, by name.
+     */
+    private Map<String,PluginWrapper> loadable() {
+        Map<String,PluginWrapper> active = new LinkedHashMap<String,PluginWrapper>();
+        for (PluginWrapper plugin : prepared) {
+            if (plugin.isActive()) {
+                active.put(plugin.getShortName(), plugin);
+            }
+        }
+
+        // Drop plugins with missing required dependencies, Hudson will refuse to load them anyways
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (PluginWrapper plugin : new ArrayList<PluginWrapper>(active.values())) {
+                for (PluginWrapper.Dependency dependency : requiredDependenciesOf(plugin)) {
+                    if (!active.containsKey(dependency.shortName)) {
+                        log.debug("Not scheduling {}; missing dependency: {}", plugin.getShortName(), dependency.shortName);
+                        active.remove(plugin.getShortName());
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+
+        return active;
+    }
+
+    /**
+     * Build the task graph for the given plugins, dropping any which could not be ordered.
+     */
+    private Map<PluginWrapper,Task> schedule(final Map<String,PluginWrapper> active) {
+        // Lazy plugins are not scheduled, they are deferred when Hudson loads them
+        Map<String,Task> candidates = new LinkedHashMap<String,Task>();
+        for (PluginWrapper plugin : active.values()) {
+            if (!isLazy(plugin)) {
+                candidates.put(plugin.getShortName(), new Task(plugin));
+            }
+        }
+
+        // Link tasks to the dependencies which are scheduled, including optional ones
+        for (Task task : candidates.values()) {
+            for (PluginWrapper.Dependency dependency : dependenciesOf(task.plugin)) {
+                Task target = candidates.get(dependency.shortName);
+                if (target != null && target != task) {
+                    target.dependents.add(task);
+                    task.pending.incrementAndGet();
+                }
+            }
+        }
+
+        // Topological sort; anything left over is part of a cycle and can not be scheduled
+        Map<Task,Integer> pending = new HashMap<Task,Integer>();
+        LinkedList<Task> ready = new LinkedList<Task>();
+        for (Task task : candidates.values()) {
+            pending.put(task, task.pending.get());
+            if (task.pending.get() == 0) {
+                ready.add(task);
+            }
+        }
+
+        Map<PluginWrapper,Task> ordered = new LinkedHashMap<PluginWrapper,Task>();
+        while (!ready.isEmpty()) {
+            Task task = ready.removeFirst();
+            ordered.put(task.plugin, task);
+            for (Task dependent : task.dependents) {
+                int count = pending.get(dependent) - 1;
+                pending.put(dependent, count);
+                if (count == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+
+        if (ordered.size() != candidates.size()) {
+            log.warn("Unable to order {} plugins for parallel registration; they will be registered serially", candidates.size() - ordered.size());
+            for (Task task : ordered.values()) {
+                task.dependents.retainAll(ordered.values());
+            }
+        }
+
+        return ordered;
+    }
+
+    private static List<PluginWrapper.Dependency> dependenciesOf(final PluginWrapper plugin) {
+        List<PluginWrapper.Dependency> result = requiredDependenciesOf(plugin);
+        addDependencies(result, plugin.getOptionalDependencies());
+        return result;
+    }
+
+    private static List<PluginWrapper.Dependency> requiredDependenciesOf(final PluginWrapper plugin) {
+        List<PluginWrapper.Dependency> result = new ArrayList<PluginWrapper.Dependency>();
+        addDependencies(result, plugin.getDependencies());
+        return result;
+    }
+
+    private static void addDependencies(final List<PluginWrapper.Dependency> target, final List/*<PluginWrapper.Dependency>*/ dependencies) {
+        if (dependencies != null) {
+            for (Object/*PluginWrapper.Dependency*/ dependency : dependencies) {
+                target.add((PluginWrapper.Dependency) dependency);
+            }
+        }
+    }
+
+    /**
+     * Builds the injector of a single plugin.
+     */
+    private class Task
+        implements Runnable
+    {
+        private final PluginWrapper plugin;
+
+        private final List<Task> dependents = new ArrayList<Task>();
+
+        /**
+         * Number of scheduled dependencies which Hudson has not registered yet.
+         */
+        private final AtomicInteger pending = new AtomicInteger();
+
+        private final AtomicBoolean started = new AtomicBoolean();
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private volatile Injector injector;
+
+        private volatile Throwable failure;
+
+        private Pipeline pipeline;
+
+        private Task(final PluginWrapper plugin) {
+            assert plugin != null;
+            this.plugin = plugin;
+        }
+
+        /**
+         * Returns true if the caller should build the injector; only the first caller wins.
+         */
+        private boolean start() {
+            return started.compareAndSet(false, true);
+        }
+
+        private boolean isStarted() {
+            return started.get();
+        }
+
+        public void run() {
+            if (start()) {
+                build(true);
+            }
+        }
+
+        private void build(final boolean background) {
+            long start = System.nanoTime();
+            try {
+                if (log.isTraceEnabled()) {
+                    log.trace("Creating injector for plugin: {}", plugin.getShortName());
+                }
+                injector = container.createInjector(plugin);
+            }
+            catch (Throwable e) {
+                failure = e;
+            }
+            finally {
+                pipeline.completed(background, System.nanoTime() - start);
+                done.countDown();
+            }
+        }
+
+        /**
+         * Returns the injector once built; only once, as the container keeps it from then on.
+         */
+        private Injector await() throws InterruptedException {
+            done.await();
+
+            Throwable cause = failure;
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            if (cause != null) {
+                throw new RuntimeException(cause);
+            }
+
+            Injector result = injector;
+            injector = null;
+            if (result == null) {
+                throw new IllegalStateException("Plugin already registered");
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Executes scheduled tasks; keeps no references to them, so dropped tasks can be collected.
+     */
+    private class Pipeline
+    {
+        private final int size;
+
+        private final ExecutorService executor;
+
+        private final AtomicInteger built = new AtomicInteger();
+
+        private final AtomicLong background = new AtomicLong();
+
+        private final AtomicLong inline = new AtomicLong();
+
+        private final AtomicLong waited = new AtomicLong();
+
+        private final List<Task> initial = new ArrayList<Task>();
+
+        private Pipeline(final Iterable<Task> tasks) {
+            int count = 0;
+            for (Task task : tasks) {
+                task.pipeline = this;
+                if (task.pending.get() == 0) {
+                    initial.add(task);
+                }
+                count++;
+            }
+            this.size = count;
+            this.executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory()
+            {
+                private final AtomicInteger counter = new AtomicInteger();
+
+                public Thread newThread(final Runnable task) {
+                    Thread thread = new Thread(task, "smoothie-registrar-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        private void start() {
+            log.info("Creating injectors of {} plugins using {} threads", size, THREADS);
+            for (Task task : initial) {
+                execute(task);
+            }
+            initial.clear();
+        }
+
+        private void execute(final Task task) {
+            executor.execute(task);
+        }
+
+        private void completed(final boolean inBackground, final long elapsed) {
+            built.incrementAndGet();
+            (inBackground ? background : inline).addAndGet(elapsed);
+        }
+
+        private void finish() {
+            executor.shutdown();
+
+            log.info("Created injectors of {} plugins; {} ms in the background, {} ms while loading, loading waited {} ms", new Object[] {
+                built.get(),
+                TimeUnit.NANOSECONDS.toMillis(background.get()),
+                TimeUnit.NANOSECONDS.toMillis(inline.get()),
+                TimeUnit.NANOSECONDS.toMillis(waited.get())
+            });
+        }
+    }
+}
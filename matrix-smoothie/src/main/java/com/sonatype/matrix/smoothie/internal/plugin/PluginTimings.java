@@ -0,0 +1,252 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sonatype.matrix.smoothie.internal.plugin;
+
+import com.sonatype.matrix.smoothie.internal.JMX;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records per-plugin startup timings.
+ *
+ * Wall-clock and (when supported) thread CPU time are accumulated for each {@link Phase} of each plugin, and
+ * exposed over JMX as {@code com.sonatype.matrix.smoothie:type=PluginTimings}.
+ *
+ * Usage:
+ * <pre>
+ *   PluginTimings.Sample sample = timings.begin();
+ *   ...
+ *   timings.record(plugin.getShortName(), Phase.START, sample);
+ * </pre>
+ *
+ * @author <a href="mailto:jason@planet57.com">Jason Dillon</a>
+ * @since 1.1
+ */
+@Named
+@Singleton
+public class PluginTimings
+    implements PluginTimingsMBean
+{
+    public static final String OBJECT_NAME = "com.sonatype.matrix.smoothie:type=PluginTimings";
+
+    private static final int DEFAULT_LIMIT = 25;
+
+    public enum Phase
+    {
+        /** {@link hudson.PluginStrategy#createPluginWrapper} */
+        CREATE_WRAPPER,
+
+        /** Class space creation, from component indexes or the scan cache where possible */
+        CLASS_SPACE,
+
+        /** Injector creation, including scanning the class space */
+        REGISTER,
+
+        /** {@link hudson.Plugin} instance construction */
+        CONSTRUCT,
+
+        /** {@link hudson.Plugin#start} */
+        START
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private final boolean cpuTime;
+
+    private final Map<String,Record> records = new ConcurrentHashMap<String,Record>();
+
+    public PluginTimings() {
+        boolean cpu = false;
+        try {
+            cpu = threads.isCurrentThreadCpuTimeSupported() && threads.isThreadCpuTimeEnabled();
+        }
+        catch (Exception e) {
+            // ignore, wall-clock only
+        }
+        this.cpuTime = cpu;
+
+        JMX.register(this, OBJECT_NAME);
+    }
+
+    /**
+     * Snapshot of the current thread's clocks.
+     */
+    public static class Sample
+    {
+        private final long wall;
+
+        private final long cpu;
+
+        private Sample(final long wall, final long cpu) {
+            this.wall = wall;
+            this.cpu = cpu;
+        }
+    }
+
+    public Sample begin() {
+        return new Sample(System.nanoTime(), cpuTime ? threads.getCurrentThreadCpuTime() : 0);
+    }
+
+    /**
+     * Add the time elapsed since the given sample to the phase of a plugin.
+     */
+    public void record(final String plugin, final Phase phase, final Sample sample) {
+        assert plugin != null;
+        assert phase != null;
+        assert sample != null;
+
+        long wall = System.nanoTime() - sample.wall;
+        long cpu = cpuTime ? threads.getCurrentThreadCpuTime() - sample.cpu : 0;
+
+        Record record = records.get(plugin);
+        if (record == null) {
+            synchronized (records) {
+                record = records.get(plugin);
+                if (record == null) {
+                    record = new Record(plugin);
+                    records.put(plugin, record);
+                }
+            }
+        }
+
+        record.wall.addAndGet(phase.ordinal(), wall);
+        record.cpu.addAndGet(phase.ordinal(), cpu);
+    }
+
+    private static class Record
+    {
+        private final String plugin;
+
+        private final AtomicLongArray wall = new AtomicLongArray(PHASES.length);
+
+        private final AtomicLongArray cpu = new AtomicLongArray(PHASES.length);
+
+        private Record(final String plugin) {
+            this.plugin = plugin;
+        }
+
+        private long wall(final Phase phase) {
+            if (phase != null) {
+                return wall.get(phase.ordinal());
+            }
+            long total = 0;
+            for (int i = 0; i < PHASES.length; i++) {
+                total += wall.get(i);
+            }
+            return total;
+        }
+
+        private long cpu(final Phase phase) {
+            if (phase != null) {
+                return cpu.get(phase.ordinal());
+            }
+            long total = 0;
+            for (int i = 0; i < PHASES.length; i++) {
+                total += cpu.get(i);
+            }
+            return total;
+        }
+    }
+
+    private static String format(final String label, final long wall, final long cpu) {
+        return String.format("%s: wall=%dms, cpu=%dms", label, TimeUnit.NANOSECONDS.toMillis(wall), TimeUnit.NANOSECONDS.toMillis(cpu));
+    }
+
+    //
+    // PluginTimingsMBean
+    //
+
+    public int getPluginCount() {
+        return records.size();
+    }
+
+    public String[] getPhaseTotals() {
+        long[] wall = new long[PHASES.length];
+        long[] cpu = new long[PHASES.length];
+        for (Record record : records.values()) {
+            for (Phase phase : PHASES) {
+                wall[phase.ordinal()] += record.wall(phase);
+                cpu[phase.ordinal()] += record.cpu(phase);
+            }
+        }
+
+        String[] result = new String[PHASES.length];
+        for (Phase phase : PHASES) {
+            result[phase.ordinal()] = format(phase.name(), wall[phase.ordinal()], cpu[phase.ordinal()]);
+        }
+        return result;
+    }
+
+    public String[] getSlowestPlugins() {
+        return slowestPlugins(null, DEFAULT_LIMIT);
+    }
+
+    public String[] slowestPlugins(final String phase, final int limit) {
+        final Phase target = phase != null && phase.length() != 0 ? Phase.valueOf(phase.toUpperCase()) : null;
+
+        List<Record> sorted = new ArrayList<Record>(records.values());
+        Collections.sort(sorted, new Comparator<Record>()
+        {
+            public int compare(final Record a, final Record b) {
+                long x = a.wall(target), y = b.wall(target);
+                return x < y ? 1 : (x == y ? 0 : -1);
+            }
+        });
+
+        int size = Math.min(Math.max(limit, 0), sorted.size());
+        String[] result = new String[size];
+        for (int i = 0; i < size; i++) {
+            Record record = sorted.get(i);
+            result[i] = format(record.plugin, record.wall(target), record.cpu(target));
+        }
+        return result;
+    }
+
+    public String[] describe(final String plugin) {
+        Record record = records.get(plugin);
+        if (record == null) {
+            return new String[0];
+        }
+
+        String[] result = new String[PHASES.length];
+        for (Phase phase : PHASES) {
+            result[phase.ordinal()] = format(phase.name(), record.wall(phase), record.cpu(phase));
+        }
+        return result;
+    }
+}
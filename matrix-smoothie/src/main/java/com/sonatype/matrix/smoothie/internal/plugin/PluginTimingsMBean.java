@@ -0,0 +1,59 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sonatype.matrix.smoothie.internal.plugin;
+
+/**
+ * JMX view of {@link PluginTimings}.
+ *
+ * @author <a href="mailto:jason@planet57.com">Jason Dillon</a>
+ * @since 1.1
+ */
+public interface PluginTimingsMBean
+{
+    int getPluginCount();
+
+    /**
+     * Wall-clock and CPU totals for each phase.
+     */
+    String[] getPhaseTotals();
+
+    /**
+     * Plugins ordered by total wall-clock time, slowest first.
+     */
+    String[] getSlowestPlugins();
+
+    /**
+     * Plugins ordered by wall-clock time spent in the given phase, slowest first.
+     *
+     * @param phase     Name of a {@link PluginTimings.Phase}, or null for all phases
+     * @param limit     Maximum number of plugins to return
+     */
+    String[] slowestPlugins(String phase, int limit);
+
+    /**
+     * Timings of each phase for the given plugin.
+     */
+    String[] describe(String plugin);
+}
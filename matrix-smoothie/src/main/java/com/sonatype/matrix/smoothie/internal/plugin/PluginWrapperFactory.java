@@ -24,6 +24,8 @@
 
 package com.sonatype.matrix.smoothie.internal.plugin;
 
+import com.sonatype.matrix.smoothie.internal.space.ClassPathIndex;
+import com.sonatype.matrix.smoothie.internal.space.JarFilePool;
 import hudson.ClassicPluginStrategy;
 import hudson.PluginManager;
 import hudson.PluginStrategy;
@@ -39,6 +41,8 @@ import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 /**
  * Provides {@link PluginWrapper} creation facilities.
@@ -54,9 +58,19 @@ public class PluginWrapperFactory
 
     private final PluginStrategy delegate;
 
+    private final JarFilePool pool;
+
+    /**
+     * Index of each parent class-loader chain, shared by all plugins.
+     */
+    private final Map<ClassLoader,ClassPathIndex> chains = new WeakHashMap<ClassLoader,ClassPathIndex>();
+
     @Inject
-    public PluginWrapperFactory(final PluginManager plugins) {
+    public PluginWrapperFactory(final PluginManager plugins, final JarFilePool pool, final SharedLibraries libraries) {
         assert plugins != null;
+        assert pool != null;
+        this.pool = pool;
+        assert libraries != null;
 
         // Using the Classic strategy to build the wrapper, since its not easy to re-implement its logic
         this.delegate = new ClassicPluginStrategy(plugins)
@@ -64,15 +78,44 @@ public class PluginWrapperFactory
             @Override
             protected ClassLoader createClassLoader(final List<File> files, final ClassLoader parent) throws IOException {
                 assert files != null;
+
+                // Identical jars bundled by other plugins are loaded by the shared library loader, below the plugin dependencies;
+                // they stay on the plugin classpath so they are scanned like the rest
+                ClassLoader core = DelegationHints.isDependencyLoader(parent) ? parent.getParent() : parent;
+                SharedLibraries.View shared = libraries.share(files, core, parent);
+
                 List<URL> urls = new ArrayList<URL>(files.size());
                 for (File file : files) {
                     urls.add(file.toURI().toURL());
                 }
-                return new PluginClassLoader(urls, parent);
+                return new PluginClassLoader(urls, parent, pool, createHints(parent), shared);
             }
         };
     }
 
+    private DelegationHints createHints(final ClassLoader parent) {
+        if (DelegationHints.DISABLED) {
+            return null;
+        }
+
+        ClassLoader loader = parent;
+        boolean dependencies = DelegationHints.isDependencyLoader(loader);
+        if (dependencies) {
+            loader = loader.getParent();
+        }
+
+        ClassPathIndex chain;
+        synchronized (chains) {
+            chain = chains.get(loader);
+            if (chain == null && !chains.containsKey(loader)) {
+                chain = DelegationHints.indexChain(loader, pool);
+                chains.put(loader, chain);
+            }
+        }
+
+        return chain != null ? new DelegationHints(chain, dependencies) : null;
+    }
+
     public PluginWrapper create(final File file) throws Exception {
         assert file != null;
 
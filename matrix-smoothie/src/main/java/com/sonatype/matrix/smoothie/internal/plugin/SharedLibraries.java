@@ -0,0 +1,485 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sonatype.matrix.smoothie.internal.plugin;
+
+import com.sonatype.matrix.smoothie.internal.space.ClassPathIndex;
+import com.sonatype.matrix.smoothie.internal.space.JarFilePool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.regex.Pattern;
+
+/**
+ * Shares identical third-party jars bundled by several plugins through a single class-loader.
+ *
+ * Jars are identified by content hash.  The first copy of each is added to a shared library loader, which sits
+ * between Hudson's class-loader and the plugin class-loaders.  Plugins only delegate to it for the jars they
+ * bundle themselves, see {@link View}.
+ *
+ * Shared jars stay on the plugin classpath, so they are still scanned for components; the plugin class-loader
+ * just loads their classes from the shared loader.
+ *
+ * A plugin shares its jars only if none of them conflict with a different shared jar providing the same
+ * classes; otherwise all of its jars stay private, so a library never links against another version of its
+ * dependencies than the one the plugin bundles.  A jar is only shared if every class it references which the
+ * plugin can see is visible to the shared loader too; ie. from Hudson or other shared jars, but not from the
+ * plugin's private jars or the plugins it depends on.  Jars referencing injection or Hudson types may hold
+ * components or injectable types, which need the plugin's injector, and stay private as well as jars matching
+ * {@link #EXCLUDE}.
+ *
+ * Disabled unless {@link #ENABLED} is set.
+ *
+ * @author <a href="mailto:jason@planet57.com">Jason Dillon</a>
+ * @since 1.1
+ */
+@Named
+@Singleton
+public class SharedLibraries
+{
+    private static final Logger log = LoggerFactory.getLogger(SharedLibraries.class);
+
+    public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty(SharedLibraries.class.getName() + ".enabled", "false"));
+
+    /**
+     * Comma-separated jar file name patterns, with {@code *} wildcards, which must stay isolated.
+     */
+    public static final String EXCLUDE = System.getProperty(SharedLibraries.class.getName() + ".exclude", "");
+
+    private final JarFilePool pool;
+
+    private final boolean enabled;
+
+    private final List<Pattern> excludes;
+
+    private SharedLibraryLoader loader;
+
+    /**
+     * Shared jar URLs, by content hash.
+     */
+    private final Map<String,URL> jars = new HashMap<String,URL>();
+
+    /**
+     * Content hash of the shared jar providing each class entry.
+     */
+    private final Map<String,String> owners = new HashMap<String,String>();
+
+    /**
+     * Shared jar contents, by content hash.
+     */
+    private final Map<String,JarInfo> shares = new HashMap<String,JarInfo>();
+
+    private long duplicates;
+
+    private long bytesSaved;
+
+    @Inject
+    public SharedLibraries(final JarFilePool pool) {
+        this(pool, ENABLED, EXCLUDE);
+    }
+
+    public SharedLibraries(final JarFilePool pool, final boolean enabled, final String exclude) {
+        assert pool != null;
+        this.pool = pool;
+        this.enabled = enabled;
+        this.excludes = new ArrayList<Pattern>();
+        for (String item : exclude.split(",")) {
+            item = item.trim();
+            if (item.length() != 0) {
+                excludes.add(Pattern.compile(Pattern.quote(item).replace("*", "\\E.*\\Q")));
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * The shared jars bundled by one plugin.
+     */
+    public static class View
+    {
+        private final SharedLibraryLoader loader;
+
+        private final ClassPathIndex index;
+
+        private final Set<URL> copies;
+
+        private View(final SharedLibraryLoader loader, final ClassPathIndex index, final Set<URL> copies) {
+            this.loader = loader;
+            this.index = index;
+            this.copies = copies;
+        }
+
+        /**
+         * True if the given entry of the plugin classpath is the plugin's copy of a shared jar.
+         */
+        public boolean isCopy(final URL url) {
+            return copies.contains(url);
+        }
+
+        /**
+         * True if one of the plugin's shared jars contains the given path.
+         */
+        public boolean contains(final String path) {
+            return index.sourceOf(path) != null;
+        }
+
+        public Class<?> loadClass(final String name) throws ClassNotFoundException {
+            return loader.loadClass(name);
+        }
+
+        public ClassPathIndex getIndex() {
+            return index;
+        }
+    }
+
+    /**
+     * Share the jars of a plugin which may be shared.
+     *
+     * @param files     The plugin classpath, as given to {@link PluginWrapperFactory}
+     * @param core      The class-loader of Hudson, which the shared loader delegates to
+     * @param parent    The parent of the plugin class-loader; either {@code core} or the loader of its dependencies
+     * @return          The shared jars of the plugin, or null if none
+     */
+    public View share(final List<File> files, final ClassLoader core, final ClassLoader parent) throws IOException {
+        assert files != null;
+        assert core != null;
+        assert parent != null;
+
+        if (!enabled) {
+            return null;
+        }
+
+        Map<String,File> candidates = new LinkedHashMap<String,File>();
+        List<URL> others = new ArrayList<URL>();
+        for (File file : files) {
+            if (isCandidate(file)) {
+                candidates.put(hash(file), file);
+            }
+            else {
+                others.add(file.toURI().toURL());
+            }
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+
+        List<URL> shared = new ArrayList<URL>(candidates.size());
+        Set<URL> copies = new HashSet<URL>();
+        synchronized (this) {
+            if (loader == null) {
+                loader = new SharedLibraryLoader(core);
+            }
+            else if (loader.getParent() != core) {
+                log.debug("Not sharing jars of plugin with different parent class-loader: {}", core);
+                return null;
+            }
+
+            // Check all new jars first, a plugin either shares all its jars or none
+            Map<String,JarInfo> infos = new LinkedHashMap<String,JarInfo>();
+            Map<String,String> pending = new HashMap<String,String>();
+            for (Map.Entry<String,File> entry : candidates.entrySet()) {
+                String hash = entry.getKey();
+                JarInfo info = shares.get(hash);
+                if (info == null) {
+                    info = inspect(entry.getValue());
+                    for (String path : info.classes) {
+                        if (owners.containsKey(path) || pending.put(path, hash) != null) {
+                            log.debug("Not sharing jars of plugin; {} conflicts with another jar on: {}", entry.getValue().getName(), path);
+                            return null;
+                        }
+                    }
+                }
+                infos.put(hash, info);
+            }
+
+            // Drop jars which would link differently when shared, until the rest only need each other
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                ClassPathIndex visible = new ClassPathIndex(others.toArray(new URL[others.size()]), pool);
+                for (Iterator<Map.Entry<String,JarInfo>> iter = infos.entrySet().iterator(); iter.hasNext();) {
+                    Map.Entry<String,JarInfo> entry = iter.next();
+                    String reason = unshareable(entry.getKey(), entry.getValue(), infos, pending, visible, core, parent);
+                    if (reason != null) {
+                        File file = candidates.get(entry.getKey());
+                        log.debug("Not sharing {}; {}", file.getName(), reason);
+                        others.add(file.toURI().toURL());
+                        iter.remove();
+                        changed = true;
+                    }
+                }
+            }
+
+            for (Map.Entry<String,JarInfo> entry : infos.entrySet()) {
+                String hash = entry.getKey();
+                File file = candidates.get(hash);
+                URL url = jars.get(hash);
+                if (url == null) {
+                    url = file.toURI().toURL();
+                    jars.put(hash, url);
+                    shares.put(hash, entry.getValue());
+                    for (String path : entry.getValue().classes) {
+                        owners.put(path, hash);
+                    }
+                    loader.addURL(url);
+                    log.trace("Sharing: {}", url);
+                }
+                else {
+                    duplicates++;
+                    bytesSaved += file.length();
+                    log.trace("Using shared copy of: {}", file);
+                }
+                shared.add(url);
+                copies.add(file.toURI().toURL());
+            }
+
+            log.debug("Shared jars: {}, duplicates: {}, bytes saved: {}", new Object[] { jars.size(), duplicates, bytesSaved });
+        }
+
+        if (shared.isEmpty()) {
+            return null;
+        }
+        ClassPathIndex index = new ClassPathIndex(shared.toArray(new URL[shared.size()]), pool);
+        return new View(loader, index, copies);
+    }
+
+    /**
+     * Returns why the given jar can not be shared by the plugin, or null if it can.
+     *
+     * @param infos     The jars of the plugin still to be shared, by hash
+     * @param pending   Classes of the plugin's jars which are not shared yet, by the hash of their jar
+     * @param visible   The plugin's private classpath
+     */
+    private String unshareable(final String hash, final JarInfo info, final Map<String,JarInfo> infos, final Map<String,String> pending,
+                               final ClassPathIndex visible, final ClassLoader core, final ClassLoader parent)
+    {
+        if (info.pinned != null) {
+            return "it references " + info.pinned;
+        }
+
+        for (String path : info.references) {
+            // Shared along with it
+            String owner = owners.get(path);
+            if (owner == null) {
+                owner = pending.get(path);
+            }
+            if (owner != null && infos.containsKey(owner)) {
+                continue;
+            }
+            if (core.getResource(path) != null) {
+                continue;
+            }
+            // Missing from the plugin as well is fine, it fails the same way when shared
+            if (!visible.isUsable() || visible.sourceOf(path) != null || (parent != core && parent.getResource(path) != null)) {
+                return "it links against " + path + " of the plugin";
+            }
+        }
+        return null;
+    }
+
+    private boolean isCandidate(final File file) {
+        if (!file.isFile() || !file.getName().endsWith(".jar")) {
+            return false;
+        }
+        for (Pattern pattern : excludes) {
+            if (pattern.matcher(file.getName()).matches()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Packages of types which mark a jar as part of a plugin rather than a library; see {@link #unshareable}.
+     */
+    private static final String[] PINNED = {
+        "javax/inject/",
+        "com/google/inject/",
+        "org/sonatype/inject/",
+        "hudson/",
+        "com/sonatype/matrix/smoothie/injecto/"
+    };
+
+    /**
+     * The classes of a jar and the classes they reference.
+     */
+    private static class JarInfo
+    {
+        private final List<String> classes = new ArrayList<String>();
+
+        /**
+         * Class file paths of referenced types outside of the jar and {@code java.*}.
+         */
+        private final Set<String> references = new HashSet<String>();
+
+        /**
+         * A referenced type which keeps the jar private, or null.
+         */
+        private String pinned;
+    }
+
+    private JarInfo inspect(final File file) throws IOException {
+        JarInfo info = new JarInfo();
+        Set<String> references = new HashSet<String>();
+        JarFilePool.Handle handle = pool.acquire(file);
+        try {
+            JarFile jar = handle.getJarFile();
+            Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                if (entry.getName().endsWith(".class")) {
+                    info.classes.add(entry.getName());
+                    InputStream input = jar.getInputStream(entry);
+                    try {
+                        ClassReferences.read(input, references);
+                    }
+                    finally {
+                        input.close();
+                    }
+                }
+            }
+        }
+        finally {
+            handle.release();
+        }
+
+        references.removeAll(info.classes);
+        for (String path : references) {
+            if (path.startsWith("java/")) {
+                continue;
+            }
+            if (info.pinned == null) {
+                for (String prefix : PINNED) {
+                    if (path.startsWith(prefix)) {
+                        info.pinned = path;
+                        break;
+                    }
+                }
+            }
+            info.references.add(path);
+        }
+        return info;
+    }
+
+    private static String hash(final File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        }
+        catch (Exception e) {
+            throw new IOException(e);
+        }
+
+        InputStream input = new FileInputStream(file);
+        try {
+            byte[] buff = new byte[8192];
+            int n;
+            while ((n = input.read(buff)) != -1) {
+                digest.update(buff, 0, n);
+            }
+        }
+        finally {
+            input.close();
+        }
+
+        StringBuilder buff = new StringBuilder();
+        for (byte b : digest.digest()) {
+            buff.append(String.format("%02x", b));
+        }
+        return buff.toString();
+    }
+
+    public synchronized int getSharedCount() {
+        return jars.size();
+    }
+
+    public synchronized long getDuplicates() {
+        return duplicates;
+    }
+
+    public synchronized long getBytesSaved() {
+        return bytesSaved;
+    }
+
+    /**
+     * Loads the shared jars, parent first.
+     */
+    private static class SharedLibraryLoader
+        extends URLClassLoader
+    {
+        static {
+            // Registration is for the calling class, so this can't be left to PluginClassLoader
+            Method method = PluginClassLoader.parallelCapableMethod();
+            if (method != null) {
+                try {
+                    method.invoke(null);
+                }
+                catch (Exception e) {
+                    log.debug("Unable to register as parallel capable", e);
+                }
+            }
+        }
+
+        private SharedLibraryLoader(final ClassLoader parent) {
+            super(new URL[0], parent);
+        }
+
+        @Override
+        protected void addURL(final URL url) {
+            super.addURL(url);
+        }
+
+        @Override
+        public String toString() {
+            return "SharedLibraryLoader{" +
+                "urls=" + getURLs().length +
+                '}';
+        }
+    }
+}
@@ -24,7 +24,9 @@
 
 package com.sonatype.matrix.smoothie.internal.plugin;
 
+import com.google.inject.Injector;
 import com.sonatype.matrix.smoothie.SmoothieContainer;
+import com.sonatype.matrix.smoothie.internal.plugin.PluginTimings.Phase;
 import hudson.Plugin;
 import hudson.PluginStrategy;
 import hudson.PluginWrapper;
@@ -57,12 +59,22 @@ public class SmoothiePluginStrategy
 
     private final PluginWrapperFactory pluginFactory;
 
+    private final PluginRegistrar registrar;
+
+    private final PluginTimings timings;
+
     @Inject
-    public SmoothiePluginStrategy(final SmoothieContainer container, final PluginWrapperFactory pluginFactory) {
+    public SmoothiePluginStrategy(final SmoothieContainer container, final PluginWrapperFactory pluginFactory, final PluginRegistrar registrar,
+                                  final PluginTimings timings)
+    {
         assert container != null;
         this.container = container;
         assert pluginFactory != null;
         this.pluginFactory = pluginFactory;
+        assert registrar != null;
+        this.registrar = registrar;
+        assert timings != null;
+        this.timings = timings;
     }
 
     private String basename(String name) {
@@ -83,18 +95,25 @@ public class SmoothiePluginStrategy
     public PluginWrapper createPluginWrapper(final File archive) throws IOException {
         assert archive != null;
 
-        PluginWrapper plugin;
+        PluginTimings.Sample sample = timings.begin();
+        PluginWrapper plugin = null;
         try {
             plugin = pluginFactory.create(archive);
         }
         catch (Exception e) {
             throw new IOException(e);
         }
+        finally {
+            // Failures are recorded by archive name, as the plugin's name is not known
+            timings.record(plugin != null ? plugin.getShortName() : archive.getName(), Phase.CREATE_WRAPPER, sample);
+        }
 
         if (log.isDebugEnabled()) {
             logPluginDetails(plugin);
         }
 
+        registrar.prepare(plugin);
+
         return plugin;
     }
 
@@ -157,7 +176,25 @@ public class SmoothiePluginStrategy
             log.debug("Configuring plugin: {}", plugin.getShortName());
         }
 
-        container.register(plugin);
+        boolean loaded = false;
+        try {
+            registrar.register(plugin);
+            loadInstance(plugin);
+            loaded = true;
+        }
+        finally {
+            if (!loaded) {
+                // Hudson drops the plugin, and will refuse to load anything which requires it
+                registrar.failed(plugin);
+            }
+        }
+    }
+
+    /**
+     * Constructs the optional {@link hudson.Plugin} instance and starts it.
+     */
+    private void loadInstance(final PluginWrapper plugin) throws IOException {
+        assert plugin != null;
 
         ClassLoader old = Thread.currentThread().getContextClassLoader();
         Thread.currentThread().setContextClassLoader(plugin.classLoader);
@@ -172,7 +209,10 @@ public class SmoothiePluginStrategy
                 try {
                     // Ask the container to construct the instance
                     Class<? extends Plugin> type = loadPluginClass(plugin);
-                    instance = container.injector(plugin).getInstance(type);
+                    Injector injector = container.injector(plugin);
+                    PluginTimings.Sample sample = timings.begin();
+                    instance = injector.getInstance(type);
+                    timings.record(plugin.getShortName(), Phase.CONSTRUCT, sample);
                     log.trace("Plugin instance: {}", instance);
                 }
                 catch (Throwable e) {
@@ -215,7 +255,14 @@ public class SmoothiePluginStrategy
 
         Plugin instance = plugin.getPlugin();
         instance.setServletContext(Hudson.getInstance().servletContext);
-        instance.start();
+
+        PluginTimings.Sample sample = timings.begin();
+        try {
+            instance.start();
+        }
+        finally {
+            timings.record(plugin.getShortName(), Phase.START, sample);
+        }
     }
 
     /**
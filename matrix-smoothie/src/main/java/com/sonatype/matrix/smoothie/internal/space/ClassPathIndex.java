@@ -0,0 +1,615 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sonatype.matrix.smoothie.internal.space;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.security.CodeSigner;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Index of the entries of a set of classpath entries, by directory.
+ *
+ * Each classpath entry is enumerated once, when the index is first used.  Lookups then only consult the entries
+ * which actually contain the requested path, in classpath order.  The same index answers
+ * {@link org.sonatype.guice.bean.reflect.ClassSpace#findEntries} for the scanner, see {@link ClassPathSpace}.
+ *
+ * Jars referenced via {@code Class-Path} manifest attributes are indexed right after the jar referencing them,
+ * as {@link java.net.URLClassLoader} would search them.  The index is only {@link #isUsable usable} when all
+ * entries are local files or directories; otherwise callers must fall back to walking the classpath.
+ *
+ * @author <a href="mailto:jason@planet57.com">Jason Dillon</a>
+ * @since 1.1
+ */
+public class ClassPathIndex
+{
+    private static final Logger log = LoggerFactory.getLogger(ClassPathIndex.class);
+
+    private final URL[] urls;
+
+    private final JarFilePool pool;
+
+    private volatile boolean built;
+
+    private boolean usable;
+
+    private Source[] sources;
+
+    /**
+     * Entry names of each directory, keyed by directory path ("" for the root, otherwise ending with "/").
+     */
+    private Map<String,Directory> directories;
+
+    /**
+     * Paths of all directories, including those only containing other directories; without trailing "/".
+     */
+    private Set<String> paths;
+
+    public ClassPathIndex(final URL[] urls, final JarFilePool pool) {
+        assert urls != null;
+        this.urls = urls.clone();
+        assert pool != null;
+        this.pool = pool;
+    }
+
+    /**
+     * Returns the pool jars of this index are borrowed from.
+     */
+    JarFilePool getPool() {
+        return pool;
+    }
+
+    /**
+     * Entries of a single directory, from all sources which contain it.
+     */
+    private static class Directory
+    {
+        /**
+         * Indexes of the sources containing the directory, in classpath order.
+         */
+        private final int[] sources;
+
+        /**
+         * Sorted file names per source, parallel to {@link #sources}.
+         */
+        private final String[][] files;
+
+        private Directory(final int[] sources, final String[][] files) {
+            this.sources = sources;
+            this.files = files;
+        }
+    }
+
+    /**
+     * A single classpath entry.  Jar files are borrowed from the {@link JarFilePool} for each operation.
+     */
+    public static class Source
+    {
+        private final URL url;
+
+        private final File file;
+
+        private final boolean directory;
+
+        private final JarFilePool pool;
+
+        /**
+         * Index of the source which referenced this one via {@code Class-Path}, or -1.
+         */
+        private final int origin;
+
+        private Manifest manifest;
+
+        private boolean manifestRead;
+
+        private Source(final URL url, final File file, final JarFilePool pool, final int origin) {
+            this.url = url;
+            this.file = file;
+            this.directory = file.isDirectory();
+            this.pool = pool;
+            this.origin = origin;
+        }
+
+        public URL getUrl() {
+            return url;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public boolean isDirectory() {
+            return directory;
+        }
+
+        public synchronized Manifest getManifest() throws IOException {
+            if (!manifestRead) {
+                if (!directory) {
+                    JarFilePool.Handle handle = pool.acquire(file);
+                    try {
+                        manifest = handle.getJarFile().getManifest();
+                    }
+                    finally {
+                        handle.release();
+                    }
+                }
+                manifestRead = true;
+            }
+            return manifest;
+        }
+
+        /**
+         * Returns the URL of the given path within this entry.
+         */
+        public URL urlOf(final String path) throws IOException {
+            if (directory) {
+                return new File(file, path).toURI().toURL();
+            }
+            return new URL("jar:" + url + "!/" + path);
+        }
+
+        /**
+         * Opens the given path for streaming; a jar stays borrowed from the pool until the stream is closed.
+         */
+        public InputStream open(final String path) throws IOException {
+            if (directory) {
+                return new FileInputStream(new File(file, path));
+            }
+
+            final JarFilePool.Handle handle = pool.acquire(file);
+            try {
+                JarFile jar = handle.getJarFile();
+                JarEntry entry = jar.getJarEntry(path);
+                if (entry == null) {
+                    throw new IOException("Missing entry: " + path + " in: " + file);
+                }
+                return new FilterInputStream(jar.getInputStream(entry))
+                {
+                    private boolean closed;
+
+                    @Override
+                    public void close() throws IOException {
+                        if (closed) {
+                            return;
+                        }
+                        closed = true;
+                        try {
+                            super.close();
+                        }
+                        finally {
+                            handle.release();
+                        }
+                    }
+                };
+            }
+            catch (IOException e) {
+                handle.release();
+                throw e;
+            }
+            catch (RuntimeException e) {
+                handle.release();
+                throw e;
+            }
+        }
+
+        /**
+         * Reads the given path, returning its bytes and code signers.
+         */
+        public Resource read(final String path) throws IOException {
+            if (directory) {
+                return new Resource(toBytes(new FileInputStream(new File(file, path))), null);
+            }
+
+            JarFilePool.Handle handle = pool.acquire(file);
+            try {
+                JarFile jar = handle.getJarFile();
+                JarEntry entry = jar.getJarEntry(path);
+                if (entry == null) {
+                    throw new IOException("Missing entry: " + path + " in: " + file);
+                }
+                byte[] bytes = toBytes(jar.getInputStream(entry));
+                // signers are only available once the entry has been read completely
+                return new Resource(bytes, entry.getCodeSigners());
+            }
+            finally {
+                handle.release();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return file.getName();
+        }
+    }
+
+    /**
+     * The contents of an entry, as read from a {@link Source}.
+     */
+    public static class Resource
+    {
+        private final byte[] bytes;
+
+        private final CodeSigner[] signers;
+
+        private Resource(final byte[] bytes, final CodeSigner[] signers) {
+            this.bytes = bytes;
+            this.signers = signers;
+        }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        public CodeSigner[] getSigners() {
+            return signers;
+        }
+    }
+
+    private static byte[] toBytes(final InputStream input) throws IOException {
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buff = new byte[8192];
+            int n;
+            while ((n = input.read(buff)) != -1) {
+                output.write(buff, 0, n);
+            }
+            return output.toByteArray();
+        }
+        finally {
+            input.close();
+        }
+    }
+
+    private void ensureBuilt() {
+        if (!built) {
+            synchronized (this) {
+                if (!built) {
+                    try {
+                        build();
+                    }
+                    catch (Exception e) {
+                        log.warn("Failed to index classpath; falling back to walking it", e);
+                        usable = false;
+                    }
+                    built = true;
+                }
+            }
+        }
+    }
+
+    private void build() throws Exception {
+        long start = System.currentTimeMillis();
+
+        List<Source> sources = new ArrayList<Source>(urls.length);
+        Set<URL> seen = new HashSet<URL>();
+        for (URL url : urls) {
+            if (!"file".equals(url.getProtocol())) {
+                log.debug("Unable to index non-file classpath entry: {}", url);
+                return;
+            }
+            if (seen.add(url)) {
+                sources.add(new Source(url, new File(url.toURI()), pool, -1));
+            }
+        }
+
+        // directory -> source index -> file names
+        Map<String,TreeMap<Integer,List<String>>> found = new HashMap<String,TreeMap<Integer,List<String>>>();
+        for (int i = 0; i < sources.size(); i++) {
+            Source source = sources.get(i);
+            if (source.isDirectory()) {
+                collect(found, i, source.getFile(), "");
+            }
+            else if (source.getFile().isFile()) {
+                Manifest manifest = source.getManifest();
+                String classPath = manifest != null ? manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH) : null;
+                if (classPath != null) {
+                    // Referenced jars are searched right after the referencing jar
+                    int j = i + 1;
+                    for (String item : classPath.trim().split("\\s+")) {
+                        if (item.length() == 0) {
+                            continue;
+                        }
+                        URL url = new URL(source.getUrl(), item);
+                        if (!"file".equals(url.getProtocol())) {
+                            log.debug("Unable to index non-file Class-Path entry: {}", url);
+                            return;
+                        }
+                        if (seen.add(url)) {
+                            sources.add(j++, new Source(url, new File(url.toURI()), pool, i));
+                        }
+                    }
+                }
+
+                JarFilePool.Handle handle = pool.acquire(source.getFile());
+                try {
+                    Enumeration<JarEntry> entries = handle.getJarFile().entries();
+                    while (entries.hasMoreElements()) {
+                        JarEntry entry = entries.nextElement();
+                        String name = entry.getName();
+                        if (!entry.isDirectory()) {
+                            int j = name.lastIndexOf('/') + 1;
+                            add(found, i, name.substring(0, j), name.substring(j));
+                        }
+                    }
+                }
+                finally {
+                    handle.release();
+                }
+            }
+            // else missing, nothing to index; as with URLClassLoader
+        }
+
+        Map<String,Directory> directories = new HashMap<String,Directory>(found.size() * 4 / 3 + 1);
+        for (Map.Entry<String,TreeMap<Integer,List<String>>> entry : found.entrySet()) {
+            TreeMap<Integer,List<String>> bySource = entry.getValue();
+            int[] indexes = new int[bySource.size()];
+            String[][] files = new String[bySource.size()][];
+            int j = 0;
+            for (Map.Entry<Integer,List<String>> item : bySource.entrySet()) {
+                indexes[j] = item.getKey();
+                files[j] = item.getValue().toArray(new String[item.getValue().size()]);
+                Arrays.sort(files[j]);
+                j++;
+            }
+            directories.put(entry.getKey(), new Directory(indexes, files));
+        }
+
+        Set<String> paths = new HashSet<String>();
+        for (String dir : directories.keySet()) {
+            for (int i = dir.indexOf('/'); i != -1; i = dir.indexOf('/', i + 1)) {
+                paths.add(dir.substring(0, i));
+            }
+        }
+
+        this.sources = sources.toArray(new Source[sources.size()]);
+        this.directories = directories;
+        this.paths = paths;
+        this.usable = true;
+
+        log.debug("Indexed {} classpath entries ({} directories) in {}ms", new Object[] {
+            sources.size(), directories.size(), System.currentTimeMillis() - start
+        });
+    }
+
+    private static void collect(final Map<String,TreeMap<Integer,List<String>>> found, final int source, final File dir, final String path) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                collect(found, source, child, path + child.getName() + "/");
+            }
+            else {
+                add(found, source, path, child.getName());
+            }
+        }
+    }
+
+    private static void add(final Map<String,TreeMap<Integer,List<String>>> found, final int source, final String dir, final String name) {
+        TreeMap<Integer,List<String>> bySource = found.get(dir);
+        if (bySource == null) {
+            bySource = new TreeMap<Integer,List<String>>();
+            found.put(dir, bySource);
+        }
+        List<String> names = bySource.get(source);
+        if (names == null) {
+            names = new ArrayList<String>();
+            bySource.put(source, names);
+        }
+        names.add(name);
+    }
+
+    /**
+     * True if the index can answer lookups; builds the index if needed.
+     */
+    public boolean isUsable() {
+        ensureBuilt();
+        return usable;
+    }
+
+    /**
+     * Returns the first source containing the given file path, or null.
+     *
+     * Directory paths are never found, callers must fall back to walking the classpath for those.
+     */
+    public Source sourceOf(final String path) {
+        assert path != null;
+        ensureBuilt();
+        if (!usable) {
+            return null;
+        }
+
+        int i = path.lastIndexOf('/') + 1;
+        Directory dir = directories.get(path.substring(0, i));
+        if (dir == null) {
+            return null;
+        }
+        String name = path.substring(i);
+        for (int j = 0; j < dir.sources.length; j++) {
+            if (Arrays.binarySearch(dir.files[j], name) >= 0) {
+                return sources[dir.sources[j]];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * True if the given path, with or without trailing "/", is a directory in any entry.
+     */
+    public boolean isDirectory(String path) {
+        assert path != null;
+        ensureBuilt();
+        if (!usable) {
+            return false;
+        }
+        if (path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        return path.length() == 0 || paths.contains(path);
+    }
+
+    /**
+     * Returns all sources containing the given file path, in classpath order.
+     */
+    public List<Source> sourcesOf(final String path) {
+        assert path != null;
+        ensureBuilt();
+        if (!usable) {
+            return Collections.emptyList();
+        }
+
+        int i = path.lastIndexOf('/') + 1;
+        Directory dir = directories.get(path.substring(0, i));
+        if (dir == null) {
+            return Collections.emptyList();
+        }
+        String name = path.substring(i);
+        List<Source> result = new ArrayList<Source>(1);
+        for (int j = 0; j < dir.sources.length; j++) {
+            if (Arrays.binarySearch(dir.files[j], name) >= 0) {
+                result.add(sources[dir.sources[j]]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the URLs of the file entries under the given path whose name matches the glob.
+     *
+     * @param path      Directory to search from; null or "/" for the root
+     * @param glob      Name pattern with optional {@code *} wildcards; null matches all names
+     * @param recurse   True to include sub-directories
+     * @param only      Restrict results to these classpath entries; null for all
+     */
+    public List<URL> findEntries(String path, final String glob, final boolean recurse, final Collection<URL> only) throws IOException {
+        ensureBuilt();
+        if (!usable) {
+            throw new IllegalStateException("Index is not usable");
+        }
+
+        path = normalize(path);
+        boolean[] included = new boolean[sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            included[i] = only == null || only.contains(sources[i].getUrl())
+                || (sources[i].origin != -1 && included[sources[i].origin]);
+        }
+
+        List<URL> result = new ArrayList<URL>();
+        List<String> paths = new ArrayList<String>();
+        for (String dir : directories.keySet()) {
+            if (recurse ? dir.startsWith(path) : dir.equals(path)) {
+                paths.add(dir);
+            }
+        }
+        Collections.sort(paths);
+
+        // Ordered by source first, then by directory, as a classpath walk would
+        for (int i = 0; i < sources.length; i++) {
+            if (!included[i]) {
+                continue;
+            }
+            for (String dir : paths) {
+                Directory entry = directories.get(dir);
+                for (int j = 0; j < entry.sources.length; j++) {
+                    if (entry.sources[j] != i) {
+                        continue;
+                    }
+                    for (String name : entry.files[j]) {
+                        if (glob == null || matches(glob, name)) {
+                            result.add(sources[i].urlOf(dir + name));
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static String normalize(String path) {
+        if (path == null) {
+            return "";
+        }
+        while (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        if (path.length() != 0 && !path.endsWith("/")) {
+            path = path + "/";
+        }
+        return path;
+    }
+
+    /**
+     * Simple glob matching, supporting {@code *} wildcards only.
+     */
+    static boolean matches(final String glob, final String name) {
+        String[] parts = glob.split("\\*", -1);
+        if (parts.length == 1) {
+            return glob.equals(name);
+        }
+        if (!name.startsWith(parts[0])) {
+            return false;
+        }
+        int pos = parts[0].length();
+        for (int i = 1; i < parts.length - 1; i++) {
+            int found = name.indexOf(parts[i], pos);
+            if (found == -1) {
+                return false;
+            }
+            pos = found + parts[i].length();
+        }
+        String last = parts[parts.length - 1];
+        return name.length() - pos >= last.length() && name.endsWith(last);
+    }
+
+    @Override
+    public String toString() {
+        return "ClassPathIndex{" +
+            "urls=" + urls.length +
+            '}';
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sonatype.matrix.smoothie.internal.space;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonatype.guice.bean.reflect.ClassSpace;
+import org.sonatype.guice.bean.reflect.DeferredClass;
+import org.sonatype.guice.bean.reflect.URLClassSpace;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+
+/**
+ * {@link ClassSpace} which answers {@link #findEntries} from a {@link ClassPathIndex}, so the scanner does not
+ * enumerate jars which the class-loader has already indexed.
+ *
+ * @author <a href="mailto:jason@planet57.com">Jason Dillon</a>
+ * @since 1.1
+ */
+public class ClassPathSpace
+    implements ClassSpace
+{
+    private static final Logger log = LoggerFactory.getLogger(ClassPathSpace.class);
+
+    private final ClassSpace delegate;
+
+    private final ClassPathIndex index;
+
+    private final Collection<URL> urls;
+
+    /**
+     * @param loader    The class-loader to load classes and resources from
+     * @param urls      The classpath entries to search for entries; must be covered by the index
+     * @param index     The index of the class-loader
+     */
+    public ClassPathSpace(final ClassLoader loader, final URL[] urls, final ClassPathIndex index) {
+        assert loader != null;
+        assert urls != null;
+        this.delegate = new URLClassSpace(loader, urls);
+        this.urls = new HashSet<URL>(Arrays.asList(urls));
+        assert index != null;
+        this.index = index;
+    }
+
+    public Class<?> loadClass(final String name) {
+        return delegate.loadClass(name);
+    }
+
+    public DeferredClass<?> deferLoadClass(final String name) {
+        return delegate.deferLoadClass(name);
+    }
+
+    public URL getResource(final String name) {
+        return delegate.getResource(name);
+    }
+
+    public Enumeration<URL> getResources(final String name) {
+        return delegate.getResources(name);
+    }
+
+    public Enumeration<URL> findEntries(final String path, final String glob, final boolean recurse) {
+        if (index.isUsable()) {
+            try {
+                return Collections.enumeration(index.findEntries(path, glob, recurse, urls));
+            }
+            catch (IOException e) {
+                log.warn("Failed to find entries from index; falling back to walking the classpath", e);
+            }
+        }
+        return delegate.findEntries(path, glob, recurse);
+    }
+
+    @Override
+    public String toString() {
+        return "ClassPathSpace{" +
+            "urls=" + urls.size() +
+            '}';
+    }
+}
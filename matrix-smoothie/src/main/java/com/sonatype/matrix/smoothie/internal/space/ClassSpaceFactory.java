@@ -0,0 +1,189 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sonatype.matrix.smoothie.internal.space;
+
+import com.sonatype.matrix.smoothie.index.ComponentIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonatype.guice.bean.reflect.ClassSpace;
+import org.sonatype.guice.bean.reflect.URLClassSpace;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+/**
+ * Creates the {@link ClassSpace} for a set of classpath entries, using {@link ComponentIndex} where available.
+ *
+ * Entries which contain an index contribute only their indexed classes to scans; entries without one are scanned.
+ *
+ * @author <a href="mailto:jason@planet57.com">Jason Dillon</a>
+ * @since 1.1
+ */
+public class ClassSpaceFactory
+{
+    private static final Logger log = LoggerFactory.getLogger(ClassSpaceFactory.class);
+
+    public static ClassSpace create(final ClassLoader loader, final URL[] urls) {
+        return create(loader, urls, null);
+    }
+
+    /**
+     * @param index     Optional index of the loader's classpath, used to find entries instead of walking it
+     */
+    public static ClassSpace create(final ClassLoader loader, final URL[] urls, final ClassPathIndex index) {
+        assert loader != null;
+        assert urls != null;
+
+        ClassSpace space = createSpace(loader, urls, index);
+
+        Map<String,URL> entries = new LinkedHashMap<String,URL>();
+        List<URL> unindexed = new ArrayList<URL>();
+        for (URL url : urls) {
+            Map<String,URL> found = null;
+            try {
+                found = indexedEntries(url, index != null ? index.getPool() : null);
+            }
+            catch (Exception e) {
+                log.warn("Ignoring unreadable component index in: {}", url, e);
+            }
+
+            if (found != null) {
+                log.trace("Using component index of: {} ({} entries)", url, found.size());
+                // first entry wins, as with class loading
+                for (Map.Entry<String,URL> entry : found.entrySet()) {
+                    if (!entries.containsKey(entry.getKey())) {
+                        entries.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+            else {
+                unindexed.add(url);
+            }
+        }
+
+        if (unindexed.size() == urls.length) {
+            return space;
+        }
+
+        ClassSpace remainder = null;
+        if (!unindexed.isEmpty()) {
+            remainder = createSpace(loader, unindexed.toArray(new URL[unindexed.size()]), index);
+        }
+
+        return new IndexedClassSpace(space, entries, remainder);
+    }
+
+    private static ClassSpace createSpace(final ClassLoader loader, final URL[] urls, final ClassPathIndex index) {
+        if (index != null && index.isUsable()) {
+            return new ClassPathSpace(loader, urls, index);
+        }
+        return new URLClassSpace(loader, urls);
+    }
+
+    /**
+     * Returns the indexed class entries of the given classpath entry, or null if it has no index.
+     *
+     * @param pool      Pool to borrow jars from; null for the bootstrap classpath, which is read before the container
+     *                  and its pool exist
+     */
+    private static Map<String,URL> indexedEntries(final URL url, final JarFilePool pool) throws Exception {
+        if (!"file".equals(url.getProtocol())) {
+            return null;
+        }
+
+        File file = new File(url.toURI());
+
+        if (file.isDirectory()) {
+            File index = new File(file, ComponentIndex.LOCATION);
+            if (!index.isFile()) {
+                return null;
+            }
+            Map<String,URL> result = new LinkedHashMap<String,URL>();
+            for (String name : read(new FileInputStream(index))) {
+                File entry = new File(file, pathOf(name));
+                if (entry.isFile()) {
+                    result.put(name, entry.toURI().toURL());
+                }
+            }
+            return result;
+        }
+
+        if (pool == null) {
+            JarFile jar = new JarFile(file);
+            try {
+                return indexedEntries(url, jar);
+            }
+            finally {
+                jar.close();
+            }
+        }
+
+        JarFilePool.Handle handle = pool.acquire(file);
+        try {
+            return indexedEntries(url, handle.getJarFile());
+        }
+        finally {
+            handle.release();
+        }
+    }
+
+    private static Map<String,URL> indexedEntries(final URL url, final JarFile jar) throws IOException {
+        ZipEntry index = jar.getEntry(ComponentIndex.LOCATION);
+        if (index == null) {
+            return null;
+        }
+        Map<String,URL> result = new LinkedHashMap<String,URL>();
+        for (String name : read(jar.getInputStream(index))) {
+            String path = pathOf(name);
+            if (jar.getEntry(path) != null) {
+                result.put(name, new URL("jar:" + url + "!/" + path));
+            }
+        }
+        return result;
+    }
+
+    private static Set<String> read(final InputStream input) throws IOException {
+        try {
+            return ComponentIndex.read(input);
+        }
+        finally {
+            input.close();
+        }
+    }
+
+    private static String pathOf(final String name) {
+        return name.replace('.', '/') + ".class";
+    }
+}
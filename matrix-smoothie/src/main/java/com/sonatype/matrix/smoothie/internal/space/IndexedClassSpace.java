@@ -0,0 +1,134 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sonatype.matrix.smoothie.internal.space;
+
+import org.sonatype.guice.bean.reflect.ClassSpace;
+import org.sonatype.guice.bean.reflect.DeferredClass;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link ClassSpace} which answers class scans from a pre-computed index of candidate class entries.
+ *
+ * Scans for {@code *.class} from the root of the space only see the indexed entries, plus whatever the optional
+ * remainder space finds, so the scanner never has to walk the whole space.  All other operations are delegated.
+ *
+ * @author <a href="mailto:jason@planet57.com">Jason Dillon</a>
+ * @since 1.1
+ */
+public class IndexedClassSpace
+    implements ClassSpace
+{
+    private static final String CLASS_GLOB = "*.class";
+
+    private final ClassSpace delegate;
+
+    private final Map<String,URL> entries;
+
+    private final ClassSpace remainder;
+
+    /**
+     * @param delegate      The space to load classes and resources from
+     * @param entries       The indexed class entries, keyed by class name
+     * @param remainder     Optional space to scan for entries not covered by the index; may be null
+     */
+    public IndexedClassSpace(final ClassSpace delegate, final Map<String,URL> entries, final ClassSpace remainder) {
+        assert delegate != null;
+        this.delegate = delegate;
+        assert entries != null;
+        this.entries = new LinkedHashMap<String,URL>(entries);
+        this.remainder = remainder;
+    }
+
+    public IndexedClassSpace(final ClassSpace delegate, final Map<String,URL> entries) {
+        this(delegate, entries, null);
+    }
+
+    /**
+     * Returns the names of the indexed classes.
+     */
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    /**
+     * True if scans are answered entirely from the index.
+     */
+    public boolean isComplete() {
+        return remainder == null;
+    }
+
+    public Class<?> loadClass(final String name) {
+        return delegate.loadClass(name);
+    }
+
+    public DeferredClass<?> deferLoadClass(final String name) {
+        return delegate.deferLoadClass(name);
+    }
+
+    public URL getResource(final String name) {
+        return delegate.getResource(name);
+    }
+
+    public Enumeration<URL> getResources(final String name) {
+        return delegate.getResources(name);
+    }
+
+    public Enumeration<URL> findEntries(final String path, final String glob, final boolean recurse) {
+        if (!isClassScan(path, glob, recurse)) {
+            return delegate.findEntries(path, glob, recurse);
+        }
+
+        if (remainder == null) {
+            return Collections.enumeration(entries.values());
+        }
+
+        List<URL> result = new ArrayList<URL>(entries.values());
+        Enumeration<URL> found = remainder.findEntries(path, glob, recurse);
+        while (found.hasMoreElements()) {
+            result.add(found.nextElement());
+        }
+        return Collections.enumeration(result);
+    }
+
+    private static boolean isClassScan(final String path, final String glob, final boolean recurse) {
+        return recurse && CLASS_GLOB.equals(glob) && (path == null || path.length() == 0 || "/".equals(path));
+    }
+
+    @Override
+    public String toString() {
+        return "IndexedClassSpace{" +
+            "entries=" + entries.size() +
+            ", delegate=" + delegate +
+            '}';
+    }
+}
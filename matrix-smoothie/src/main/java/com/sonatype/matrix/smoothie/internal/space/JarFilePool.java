@@ -0,0 +1,229 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sonatype.matrix.smoothie.internal.space;
+
+import com.sonatype.matrix.smoothie.internal.JMX;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.JarFile;
+
+/**
+ * Container-wide pool of open {@link JarFile} handles.
+ *
+ * At most {@link #MAX_OPEN} jars are kept open; the least recently used are closed once no longer borrowed and
+ * transparently reopened when needed again.  Exposed over JMX as {@code com.sonatype.matrix.smoothie:type=JarFilePool}.
+ *
+ * Usage:
+ * <pre>
+ *   JarFilePool.Handle handle = pool.acquire(file);
+ *   try {
+ *       handle.getJarFile()...
+ *   }
+ *   finally {
+ *       handle.release();
+ *   }
+ * </pre>
+ *
+ * @author <a href="mailto:jason@planet57.com">Jason Dillon</a>
+ * @since 1.1
+ */
+@Named
+@Singleton
+public class JarFilePool
+    implements JarFilePoolMBean
+{
+    private static final Logger log = LoggerFactory.getLogger(JarFilePool.class);
+
+    public static final String OBJECT_NAME = "com.sonatype.matrix.smoothie:type=JarFilePool";
+
+    public static final int MAX_OPEN = Integer.getInteger(JarFilePool.class.getName() + ".maxOpen", 256);
+
+    private final int maxOpen;
+
+    /**
+     * Open handles, in access order.
+     */
+    private final LinkedHashMap<File,Handle> handles = new LinkedHashMap<File,Handle>(16, 0.75f, true);
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    @Inject
+    public JarFilePool() {
+        this(MAX_OPEN);
+        JMX.register(this, OBJECT_NAME);
+    }
+
+    /**
+     * Creates a private pool, which is not exposed over JMX.
+     */
+    public JarFilePool(final int maxOpen) {
+        if (maxOpen < 1) {
+            throw new IllegalArgumentException("Max open must be at least 1: " + maxOpen);
+        }
+        this.maxOpen = maxOpen;
+    }
+
+    /**
+     * A borrowed {@link JarFile}, which must be {@link #release released} once no longer used.
+     */
+    public class Handle
+    {
+        private final File file;
+
+        private final JarFile jar;
+
+        private int refs;
+
+        private boolean evicted;
+
+        private Handle(final File file, final JarFile jar) {
+            this.file = file;
+            this.jar = jar;
+        }
+
+        public JarFile getJarFile() {
+            return jar;
+        }
+
+        public void release() {
+            synchronized (JarFilePool.this) {
+                assert refs > 0;
+                refs--;
+                if (evicted && refs == 0) {
+                    close(this);
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return file.getName();
+        }
+    }
+
+    public Handle acquire(final File file) throws IOException {
+        assert file != null;
+
+        synchronized (this) {
+            Handle handle = handles.get(file);
+            if (handle != null) {
+                hits++;
+                handle.refs++;
+                return handle;
+            }
+            misses++;
+        }
+
+        // Open outside of the lock, reading the central directory can take a while
+        JarFile jar = new JarFile(file);
+
+        synchronized (this) {
+            Handle handle = handles.get(file);
+            if (handle != null) {
+                // Opened concurrently, use the pooled one
+                jar.close();
+            }
+            else {
+                handle = new Handle(file, jar);
+                handles.put(file, handle);
+                evict();
+            }
+            handle.refs++;
+            return handle;
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<File,Handle>> iter = handles.entrySet().iterator();
+        while (handles.size() > maxOpen && iter.hasNext()) {
+            Handle handle = iter.next().getValue();
+            iter.remove();
+            evictions++;
+            handle.evicted = true;
+            // Borrowed handles are closed once released
+            if (handle.refs == 0) {
+                close(handle);
+            }
+        }
+    }
+
+    private void close(final Handle handle) {
+        log.trace("Closing: {}", handle.file);
+        try {
+            handle.jar.close();
+        }
+        catch (IOException e) {
+            log.trace("Failed to close: {}", handle.file, e);
+        }
+    }
+
+    //
+    // JarFilePoolMBean
+    //
+
+    public int getMaxOpen() {
+        return maxOpen;
+    }
+
+    public synchronized int getOpen() {
+        return handles.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public String toString() {
+        return "JarFilePool{" +
+            "maxOpen=" + maxOpen +
+            ", open=" + getOpen() +
+            ", hits=" + getHits() +
+            ", misses=" + getMisses() +
+            ", evictions=" + getEvictions() +
+            '}';
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sonatype.matrix.smoothie.internal.space;
+
+import org.sonatype.guice.bean.reflect.ClassSpace;
+import org.sonatype.guice.bean.reflect.DeferredClass;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * {@link ClassSpace} which records the names of classes loaded through it.
+ *
+ * When handed to a {@link org.sonatype.guice.bean.binders.SpaceModule} this captures the candidate component
+ * classes found by the scanner, which can later be replayed with an {@link IndexedClassSpace}.
+ *
+ * @author <a href="mailto:jason@planet57.com">Jason Dillon</a>
+ * @since 1.1
+ */
+public class RecordingClassSpace
+    implements ClassSpace
+{
+    private final ClassSpace delegate;
+
+    private final Set<String> names = Collections.synchronizedSet(new TreeSet<String>());
+
+    public RecordingClassSpace(final ClassSpace delegate) {
+        assert delegate != null;
+        this.delegate = delegate;
+    }
+
+    public ClassSpace getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Returns the names of all classes loaded so far.
+     */
+    public Set<String> getNames() {
+        synchronized (names) {
+            return new TreeSet<String>(names);
+        }
+    }
+
+    public Class<?> loadClass(final String name) {
+        names.add(name);
+        return delegate.loadClass(name);
+    }
+
+    public DeferredClass<?> deferLoadClass(final String name) {
+        names.add(name);
+        return delegate.deferLoadClass(name);
+    }
+
+    public URL getResource(final String name) {
+        return delegate.getResource(name);
+    }
+
+    public Enumeration<URL> getResources(final String name) {
+        return delegate.getResources(name);
+    }
+
+    public Enumeration<URL> findEntries(final String path, final String glob, final boolean recurse) {
+        return delegate.findEntries(path, glob, recurse);
+    }
+
+    @Override
+    public String toString() {
+        return "RecordingClassSpace{" + delegate + '}';
+    }
+}
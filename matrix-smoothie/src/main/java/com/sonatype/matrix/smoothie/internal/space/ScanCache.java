@@ -0,0 +1,468 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sonatype.matrix.smoothie.internal.space;
+
+import hudson.PluginManager;
+import hudson.PluginWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sonatype.guice.bean.reflect.ClassSpace;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistent cache of plugin class-space scan results.
+ *
+ * For each plugin the names of the candidate component classes found by the last scan are stored under
+ * {@code $HUDSON_HOME/smoothie/scan-cache}, along with a fingerprint (path, size, last-modified and content hash)
+ * of each classpath entry.  When all fingerprints still match the scan is replayed from the cache with an
+ * {@link IndexedClassSpace}; any change to the plugin (ie. an upgrade) invalidates the entry and forces a rescan.
+ * Jars are only hashed when their path, size and last-modified match, but the cache entry was not written clearly
+ * after the jar was last modified; so an unchanged plugin is validated without reading its jars.
+ *
+ * Disable with {@code -Dcom.sonatype.matrix.smoothie.internal.space.ScanCache.disabled=true}.
+ *
+ * @author <a href="mailto:jason@planet57.com">Jason Dillon</a>
+ * @since 1.1
+ */
+@Named
+@Singleton
+public class ScanCache
+{
+    private static final Logger log = LoggerFactory.getLogger(ScanCache.class);
+
+    public static final boolean DISABLED = Boolean.parseBoolean(System.getProperty(ScanCache.class.getName() + ".disabled", "false"));
+
+    private static final String FORMAT = "smoothie-scan-cache:1";
+
+    private static final String SOURCE = "S ";
+
+    private static final String CLASS = "C ";
+
+    private final Provider<PluginManager> plugins;
+
+    private File directory;
+
+    @Inject
+    public ScanCache(final Provider<PluginManager> plugins) {
+        assert plugins != null;
+        this.plugins = plugins;
+    }
+
+    /**
+     * Cache in the given directory, instead of below {@code $HUDSON_HOME}.
+     */
+    ScanCache(final File directory) {
+        assert directory != null;
+        this.plugins = null;
+        this.directory = directory;
+    }
+
+    private synchronized File getDirectory() {
+        if (directory == null) {
+            // plugins live in $HUDSON_HOME/plugins
+            File home = plugins.get().rootDir.getParentFile();
+            directory = new File(home, "smoothie/scan-cache");
+        }
+        return directory;
+    }
+
+    private File fileOf(final PluginWrapper plugin) {
+        return new File(getDirectory(), plugin.getShortName() + ".idx");
+    }
+
+    /**
+     * Returns a space for the plugin which either replays a previous scan, or records the scan for {@link #store}.
+     */
+    public ClassSpace lookup(final PluginWrapper plugin, final URLClassLoader loader, final ClassSpace space) {
+        assert plugin != null;
+        assert loader != null;
+        assert space != null;
+
+        if (DISABLED || space instanceof IndexedClassSpace && ((IndexedClassSpace) space).isComplete()) {
+            // Nothing to gain when the space is fully covered by component indexes
+            return space;
+        }
+
+        List<Fingerprint> fingerprints;
+        try {
+            fingerprints = fingerprint(loader.getURLs());
+        }
+        catch (Exception e) {
+            log.warn("Unable to fingerprint plugin: {}", plugin.getShortName(), e);
+            return space;
+        }
+
+        File file = fileOf(plugin);
+        if (file.exists()) {
+            try {
+                List<String> names = load(file, plugin, fingerprints);
+                if (names != null) {
+                    Map<String,URL> entries = new LinkedHashMap<String,URL>();
+                    for (String name : names) {
+                        URL entry = loader.findResource(name.replace('.', '/') + ".class");
+                        if (entry != null) {
+                            entries.put(name, entry);
+                        }
+                    }
+                    log.debug("Using cached scan of plugin: {} ({} entries)", plugin.getShortName(), entries.size());
+                    return new IndexedClassSpace(space, entries);
+                }
+                log.debug("Cached scan of plugin is stale: {}", plugin.getShortName());
+            }
+            catch (Exception e) {
+                log.warn("Ignoring invalid scan cache: {}", file, e);
+            }
+        }
+
+        return new Recorder(space, fingerprints);
+    }
+
+    /**
+     * Persist the scan results of a space returned from {@link #lookup}, if it recorded a scan.
+     */
+    public void store(final PluginWrapper plugin, final ClassSpace space) {
+        assert plugin != null;
+        assert space != null;
+
+        if (!(space instanceof Recorder)) {
+            return;
+        }
+
+        Recorder recorder = (Recorder) space;
+        Set<String> names = recorder.getNames();
+        if (names.isEmpty()) {
+            // Nothing seen, most likely nothing to find; keep scanning rather than trusting an empty index
+            return;
+        }
+
+        File file = fileOf(plugin);
+        try {
+            save(file, plugin, recorder.fingerprints, names);
+            log.debug("Stored scan of plugin: {} ({} classes)", plugin.getShortName(), names.size());
+        }
+        catch (Exception e) {
+            log.warn("Failed to store scan cache: {}", file, e);
+        }
+    }
+
+    private List<String> load(final File file, final PluginWrapper plugin, final List<Fingerprint> fingerprints) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            if (!FORMAT.equals(reader.readLine()) || !String.valueOf(plugin.getVersion()).equals(reader.readLine())) {
+                return null;
+            }
+
+            List<Fingerprint> stored = new ArrayList<Fingerprint>();
+            List<String> names = new ArrayList<String>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(SOURCE)) {
+                    stored.add(Fingerprint.parse(line.substring(SOURCE.length())));
+                }
+                else if (line.startsWith(CLASS)) {
+                    names.add(line.substring(CLASS.length()));
+                }
+            }
+
+            if (stored.size() != fingerprints.size()) {
+                return null;
+            }
+            long cached = file.lastModified();
+            for (int i = 0; i < stored.size(); i++) {
+                if (!fingerprints.get(i).matches(stored.get(i), cached)) {
+                    return null;
+                }
+            }
+            return names;
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    private void save(final File file, final PluginWrapper plugin, final List<Fingerprint> fingerprints, final Set<String> names) throws IOException {
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create directory: " + dir);
+        }
+
+        File tmp = new File(dir, file.getName() + ".tmp");
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8"));
+        try {
+            writer.println(FORMAT);
+            writer.println(String.valueOf(plugin.getVersion()));
+            for (Fingerprint fingerprint : fingerprints) {
+                writer.println(SOURCE + fingerprint);
+            }
+            for (String name : names) {
+                writer.println(CLASS + name);
+            }
+        }
+        finally {
+            writer.close();
+        }
+
+        if (writer.checkError()) {
+            throw new IOException("Failed to write: " + tmp);
+        }
+
+        // Replace atomically where the platform allows
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Unable to rename " + tmp + " to " + file);
+            }
+        }
+    }
+
+    private static List<Fingerprint> fingerprint(final URL[] urls) throws IOException, URISyntaxException {
+        List<Fingerprint> result = new ArrayList<Fingerprint>(urls.length);
+        for (URL url : urls) {
+            result.add(Fingerprint.of(new File(url.toURI())));
+        }
+        return result;
+    }
+
+    /**
+     * Records a scan along with the fingerprints of the space it was taken from.
+     */
+    private static class Recorder
+        extends RecordingClassSpace
+    {
+        private final List<Fingerprint> fingerprints;
+
+        private Recorder(final ClassSpace delegate, final List<Fingerprint> fingerprints) {
+            super(delegate);
+            this.fingerprints = fingerprints;
+        }
+    }
+
+    /**
+     * Identifies the content of a classpath entry.  Directories are fingerprinted by the path, size and
+     * last-modified time of each file they contain.  The content hash of a jar is only computed when needed.
+     */
+    static class Fingerprint
+    {
+        /**
+         * Coarsest last-modified resolution of common file systems (FAT); changes within it can not be told apart.
+         */
+        static final long MODIFIED_RESOLUTION = 2000;
+
+        private final String path;
+
+        private final long size;
+
+        private final long modified;
+
+        private final File file;
+
+        private volatile String hash;
+
+        Fingerprint(final String path, final long size, final long modified, final String hash) {
+            this(path, size, modified, hash, null);
+            assert hash != null;
+        }
+
+        private Fingerprint(final String path, final long size, final long modified, final String hash, final File file) {
+            assert path != null;
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+            this.file = file;
+        }
+
+        static Fingerprint of(final File file) throws IOException {
+            if (file.isDirectory()) {
+                MessageDigest digest = newDigest();
+                long[] stats = new long[2];
+                digestDirectory(file, "", digest, stats);
+                return new Fingerprint(file.getAbsolutePath(), stats[0], stats[1], hex(digest.digest()));
+            }
+
+            return new Fingerprint(file.getAbsolutePath(), file.length(), file.lastModified(), null, file);
+        }
+
+        /**
+         * True if this fingerprint, of the current file, matches one stored in a cache entry written at the given time.
+         *
+         * The content is only compared when the path, size and last-modified match, but the file may have changed
+         * after the entry was written without its last-modified telling.
+         */
+        boolean matches(final Fingerprint stored, final long cached) throws IOException {
+            assert stored != null;
+
+            if (size != stored.size || modified != stored.modified || !path.equals(stored.path)) {
+                return false;
+            }
+            if (cached - modified > MODIFIED_RESOLUTION) {
+                return true;
+            }
+            return getHash().equals(stored.getHash());
+        }
+
+        boolean isHashed() {
+            return hash != null;
+        }
+
+        String getHash() throws IOException {
+            String result = hash;
+            if (result == null) {
+                MessageDigest digest = newDigest();
+                InputStream input = new FileInputStream(file);
+                try {
+                    byte[] buff = new byte[8192];
+                    int n;
+                    while ((n = input.read(buff)) != -1) {
+                        digest.update(buff, 0, n);
+                    }
+                }
+                finally {
+                    input.close();
+                }
+                result = hex(digest.digest());
+                hash = result;
+            }
+            return result;
+        }
+
+        private static void digestDirectory(final File dir, final String prefix, final MessageDigest digest, final long[] stats) throws IOException {
+            File[] files = dir.listFiles();
+            if (files == null) {
+                throw new IOException("Unable to list: " + dir);
+            }
+            Arrays.sort(files);
+            for (File file : files) {
+                String name = prefix + file.getName();
+                if (file.isDirectory()) {
+                    digestDirectory(file, name + "/", digest, stats);
+                }
+                else {
+                    digest.update((name + ':' + file.length() + ':' + file.lastModified() + '\n').getBytes("UTF-8"));
+                    stats[0] += file.length();
+                    stats[1] = Math.max(stats[1], file.lastModified());
+                }
+            }
+        }
+
+        private static MessageDigest newDigest() {
+            try {
+                return MessageDigest.getInstance("SHA-1");
+            }
+            catch (NoSuchAlgorithmException e) {
+                throw new Error(e);
+            }
+        }
+
+        private static String hex(final byte[] bytes) {
+            StringBuilder buff = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                buff.append(Character.forDigit((b >> 4) & 0xf, 16));
+                buff.append(Character.forDigit(b & 0xf, 16));
+            }
+            return buff.toString();
+        }
+
+        static Fingerprint parse(final String spec) {
+            assert spec != null;
+            // path may contain '|', so split from the end
+            int i = spec.lastIndexOf('|');
+            int j = spec.lastIndexOf('|', i - 1);
+            int k = spec.lastIndexOf('|', j - 1);
+            if (k < 0) {
+                throw new IllegalArgumentException("Invalid fingerprint: " + spec);
+            }
+            return new Fingerprint(
+                spec.substring(0, k),
+                Long.parseLong(spec.substring(k + 1, j)),
+                Long.parseLong(spec.substring(j + 1, i)),
+                spec.substring(i + 1));
+        }
+
+        private String hash() {
+            try {
+                return getHash();
+            }
+            catch (IOException e) {
+                throw new IllegalStateException("Unable to hash: " + path, e);
+            }
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Fingerprint)) {
+                return false;
+            }
+
+            Fingerprint that = (Fingerprint) obj;
+
+            return size == that.size &&
+                modified == that.modified &&
+                path.equals(that.path) &&
+                hash().equals(that.hash());
+        }
+
+        @Override
+        public int hashCode() {
+            int result = path.hashCode();
+            result = 31 * result + (int) (size ^ (size >>> 32));
+            result = 31 * result + (int) (modified ^ (modified >>> 32));
+            result = 31 * result + hash().hashCode();
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return path + '|' + size + '|' + modified + '|' + hash();
+        }
+    }
+}
@@ -24,8 +24,15 @@
 
 package com.sonatype.matrix.smoothie;
 
+import com.google.inject.Key;
+import com.sonatype.matrix.smoothie.internal.SmoothieContainerImpl;
 import org.junit.Test;
 
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.lang.annotation.Annotation;
+import java.util.concurrent.CountDownLatch;
+
 import static org.junit.Assert.*;
 
 /**
@@ -42,4 +49,108 @@ public class SmoothieTest
         assertNotNull(container);
         log.debug("Container: {}", container);
     }
-}
\ No newline at end of file
+
+    @Named
+    @Singleton
+    public static class SingletonComponent
+    {
+    }
+
+    @Named
+    public static class PrototypeComponent
+    {
+    }
+
+    @Test
+    public void testGetKeepsScope() {
+        SmoothieContainer container = Smoothie.getContainer();
+
+        Key<SingletonComponent> singleton = Key.get(SingletonComponent.class);
+        assertSame(container.get(singleton), container.get(singleton));
+
+        Key<PrototypeComponent> prototype = Key.get(PrototypeComponent.class);
+        assertNotSame(container.get(prototype), container.get(prototype));
+    }
+
+    public interface Greeting
+    {
+    }
+
+    /**
+     * Unscoped default, located before any other implementation.
+     */
+    @Named("default")
+    public static class DefaultGreeting
+        implements Greeting
+    {
+    }
+
+    @Named("other")
+    @Singleton
+    public static class OtherGreeting
+        implements Greeting
+    {
+    }
+
+    @Test
+    public void testGetWithDuplicatesKeepsScope() {
+        SmoothieContainer container = Smoothie.getContainer();
+
+        Key<Greeting> key = Key.get(Greeting.class);
+        Greeting first = container.get(key);
+        assertTrue(first instanceof DefaultGreeting);
+        assertNotSame(first, container.get(key));
+    }
+
+    @Test
+    public void testView() {
+        SmoothieContainerImpl container = (SmoothieContainerImpl) Smoothie.getContainer();
+
+        Key<SingletonComponent> key = Key.get(SingletonComponent.class);
+        BeanView<Annotation,SingletonComponent> view = container.view(key);
+        assertSame(view, container.view(key));
+        assertEquals(1, view.getBeans().size());
+        assertSame(container.get(key), view.iterator().next().getValue());
+    }
+
+    @Test
+    public void testGetContainerConcurrently() throws Exception {
+        // Race the bootstrap itself, so publication of the new container is exercised
+        SmoothieUtil.installContainer(null);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final SmoothieContainer[][] seen = new SmoothieContainer[8][1000];
+        Thread[] threads = new Thread[seen.length];
+        for (int i = 0; i < threads.length; i++) {
+            final SmoothieContainer[] results = seen[i];
+            threads[i] = new Thread()
+            {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < results.length; j++) {
+                        results[j] = Smoothie.getContainer();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        SmoothieContainer expected = Smoothie.getContainer();
+        assertNotNull(expected);
+        for (SmoothieContainer[] results : seen) {
+            for (SmoothieContainer result : results) {
+                assertSame(expected, result);
+            }
+        }
+    }
+}
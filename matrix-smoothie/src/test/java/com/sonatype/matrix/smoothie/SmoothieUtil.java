@@ -24,10 +24,25 @@
 
 package com.sonatype.matrix.smoothie;
 
+import com.sonatype.matrix.smoothie.index.ComponentIndex;
+import hudson.PluginWrapper;
+import org.junit.Assume;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.reflect.Field;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
 
 /**
  * Smoothie test utilities.
@@ -38,6 +53,19 @@ public class SmoothieUtil
 {
     private static final Logger log = LoggerFactory.getLogger(SmoothieUtil.class);
 
+    /**
+     * Set to true to run the tests which only log timings.
+     */
+    public static final String BENCHMARKS = SmoothieUtil.class.getName() + ".benchmarks";
+
+    /**
+     * Skips the calling test unless {@link #BENCHMARKS} is enabled.  Timings depend on the build machine, so these
+     * tests are not part of the default build.
+     */
+    public static void assumeBenchmarks() {
+        Assume.assumeTrue(Boolean.parseBoolean(System.getProperty(BENCHMARKS, "false")));
+    }
+
     /**
      * Uses reflection to install a container instance.  This allows the container instance to be reset.
      *
@@ -54,4 +82,92 @@ public class SmoothieUtil
             log.info("Installed custom container: {}", container);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Creates a plugin wrapper, w/o a plugin archive.
+     */
+    public static PluginWrapper createPlugin(final String name, final String version, final ClassLoader loader,
+                                             final PluginWrapper.Dependency... dependencies)
+    {
+        Manifest manifest = new Manifest();
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        attributes.putValue("Short-Name", name);
+        attributes.putValue("Plugin-Version", version);
+
+        File archive = new File(name + ".hpi");
+        return new PluginWrapper(null, archive, manifest, null, loader, new File(name + ".hpi.disabled"),
+            Arrays.asList(dependencies), Collections.<PluginWrapper.Dependency>emptyList());
+    }
+
+    /**
+     * Returns the build directory, where files created by tests are removed with the rest of the build output.
+     */
+    public static File getTargetDirectory() {
+        try {
+            // target/test-classes
+            File classes = new File(SmoothieUtil.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            return classes.getParentFile();
+        }
+        catch (URISyntaxException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Creates a new empty directory under the build directory.
+     */
+    public static File createTempDirectory(final String prefix) throws IOException {
+        File parent = new File(getTargetDirectory(), "tmp");
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create directory: " + parent);
+        }
+        File dir = File.createTempFile(prefix, "", parent);
+        if (!dir.delete() || !dir.mkdirs()) {
+            throw new IOException("Unable to create directory: " + dir);
+        }
+        return dir;
+    }
+
+    /**
+     * Copies the given test classes into a new classpath directory, with a component index listing them.
+     */
+    public static File createComponentDirectory(final Class<?>... components) throws IOException {
+        File dir = createTempDirectory("smoothie-plugin");
+
+        List<String> names = new ArrayList<String>();
+        for (Class<?> type : components) {
+            String path = type.getName().replace('.', '/') + ".class";
+            copy(type.getClassLoader().getResourceAsStream(path), new File(dir, path));
+            names.add(type.getName());
+        }
+
+        File index = new File(dir, ComponentIndex.LOCATION);
+        index.getParentFile().mkdirs();
+        OutputStream output = new FileOutputStream(index);
+        try {
+            ComponentIndex.write(output, names);
+        }
+        finally {
+            output.close();
+        }
+        return dir;
+    }
+
+    private static void copy(final InputStream input, final File file) throws IOException {
+        assert input != null;
+        file.getParentFile().mkdirs();
+        OutputStream output = new FileOutputStream(file);
+        try {
+            byte[] buff = new byte[8192];
+            int n;
+            while ((n = input.read(buff)) != -1) {
+                output.write(buff, 0, n);
+            }
+        }
+        finally {
+            input.close();
+            output.close();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sonatype.matrix.smoothie.index;
+
+import com.sonatype.matrix.smoothie.SmoothieUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+/**
+ * Tests for {@link ComponentIndexProcessor}.
+ */
+public class ComponentIndexProcessorTest
+{
+    private JavaCompiler compiler;
+
+    private File dir;
+
+    private final List<String> sources = new ArrayList<String>();
+
+    @Before
+    public void setUp() throws IOException {
+        compiler = ToolProvider.getSystemJavaCompiler();
+        assumeNotNull(compiler);
+
+        dir = SmoothieUtil.createTempDirectory("smoothie-index");
+    }
+
+    private void source(final String name, final String content) throws IOException {
+        File file = new File(dir, "src/test/" + name + ".java");
+        file.getParentFile().mkdirs();
+        Writer writer = new FileWriter(file);
+        try {
+            writer.write("package test;\n" + content);
+        }
+        finally {
+            writer.close();
+        }
+        sources.add(file.getPath());
+    }
+
+    private Set<String> compile() throws IOException {
+        File output = new File(dir, "classes");
+        output.mkdirs();
+
+        List<String> args = new ArrayList<String>();
+        args.add("-classpath");
+        args.add(System.getProperty("java.class.path"));
+        args.add("-processor");
+        args.add(ComponentIndexProcessor.class.getName());
+        args.add("-d");
+        args.add(output.getPath());
+        args.addAll(sources);
+        assertEquals(0, compiler.run(null, null, null, args.toArray(new String[args.size()])));
+
+        InputStream input = new FileInputStream(new File(output, ComponentIndex.LOCATION));
+        try {
+            return ComponentIndex.read(input);
+        }
+        finally {
+            input.close();
+        }
+    }
+
+    @Test
+    public void testComponentsIndexed() throws Exception {
+        source("Named", "@javax.inject.Named public class Named {}");
+        source("Singleton", "@javax.inject.Singleton public class Singleton {}");
+        source("Outer", "public class Outer { @javax.inject.Named public static class Inner {} }");
+        source("Plain", "@Deprecated public class Plain { public Plain(@javax.inject.Named(\"x\") String x) {} }");
+
+        Set<String> names = compile();
+        assertTrue(names.contains("test.Named"));
+        assertTrue(names.contains("test.Singleton"));
+        assertTrue(names.contains("test.Outer$Inner"));
+        assertFalse(names.contains("test.Outer"));
+        assertFalse(names.contains("test.Plain"));
+    }
+
+    @Test
+    public void testCustomQualifierIndexed() throws Exception {
+        source("Custom", "@javax.inject.Qualifier @java.lang.annotation.Retention(java.lang.annotation.RetentionPolicy.RUNTIME) public @interface Custom {}");
+        source("Qualified", "@Custom public class Qualified {}");
+
+        Set<String> names = compile();
+        assertTrue(names.contains("test.Qualified"));
+        assertFalse(names.contains("test.Custom"));
+    }
+}
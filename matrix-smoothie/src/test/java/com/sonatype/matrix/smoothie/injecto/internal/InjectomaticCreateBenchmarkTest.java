@@ -0,0 +1,126 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sonatype.matrix.smoothie.injecto.internal;
+
+import com.google.inject.Key;
+import com.sonatype.matrix.smoothie.Smoothie;
+import com.sonatype.matrix.smoothie.SmoothieUtil;
+import com.sonatype.matrix.smoothie.TestSupport;
+import com.sonatype.matrix.smoothie.injecto.Injectable;
+import com.sonatype.matrix.smoothie.injecto.Injectomatic;
+import org.junit.Test;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares {@link Injectomatic#create} with construction injected by the aspect.
+ *
+ * @author <a href="mailto:jason@planet57.com">Jason Dillon</a>
+ */
+public class InjectomaticCreateBenchmarkTest
+    extends TestSupport
+{
+    private static final int WARMUP = 10000;
+
+    private static final int ROUNDS = 100000;
+
+    @Named
+    @Singleton
+    public static class Component
+    {
+    }
+
+    public static class Thing
+        implements Injectable
+    {
+        private final String name;
+
+        private Component component;
+
+        private int injections;
+
+        public Thing(final String name) {
+            this.name = name;
+        }
+
+        @Inject
+        public void setComponent(final Component component) {
+            this.component = component;
+            injections++;
+        }
+    }
+
+    @Test
+    public void testCreate() {
+        Injectomatic injectomatic = Smoothie.getContainer().get(Key.get(Injectomatic.class));
+
+        Thing thing = injectomatic.create(Thing.class, "created");
+        assertEquals("created", thing.name);
+        assertNotNull(thing.component);
+        // Not injected again by the aspect
+        assertEquals(1, thing.injections);
+
+        try {
+            injectomatic.create(Thing.class, 1);
+            fail();
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCreateVersusAspect() {
+        SmoothieUtil.assumeBenchmarks();
+
+        Injectomatic injectomatic = Smoothie.getContainer().get(Key.get(Injectomatic.class));
+        assertNotNull(new Thing("aspect").component);
+
+        for (int i = 0; i < WARMUP; i++) {
+            new Thing("aspect");
+            injectomatic.create(Thing.class, "created");
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            assertNotNull(new Thing("aspect").component);
+        }
+        long aspect = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            assertNotNull(injectomatic.create(Thing.class, "created").component);
+        }
+        long created = System.nanoTime() - start;
+
+        log.info("Created {} instances: {}ms via aspect, {}ms via create()", new Object[] {
+            ROUNDS, aspect / 1000000, created / 1000000
+        });
+    }
+}
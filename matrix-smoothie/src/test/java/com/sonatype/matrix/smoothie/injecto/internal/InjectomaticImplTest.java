@@ -0,0 +1,215 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sonatype.matrix.smoothie.injecto.internal;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.TypeLiteral;
+import com.google.inject.matcher.Matchers;
+import com.google.inject.spi.InjectionListener;
+import com.google.inject.spi.TypeEncounter;
+import com.google.inject.spi.TypeListener;
+import com.sonatype.matrix.smoothie.Smoothie;
+import com.sonatype.matrix.smoothie.TestSupport;
+import com.sonatype.matrix.smoothie.injecto.Injectable;
+import com.sonatype.matrix.smoothie.internal.SmoothieContainerImpl;
+import org.junit.Test;
+
+import javax.inject.Inject;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link InjectomaticImpl}.
+ */
+public class InjectomaticImplTest
+    extends TestSupport
+{
+    public interface Marker
+    {
+    }
+
+    public static class Thing
+        implements Marker
+    {
+    }
+
+    public static class InjectableThing
+        implements Injectable
+    {
+    }
+
+    @Test
+    public void testRegisterAfterClassification() {
+        InjectomaticImpl injectomatic = new InjectomaticImpl(Smoothie.getContainer());
+
+        assertTrue(injectomatic.isInjectable(InjectableThing.class));
+        assertFalse(injectomatic.isInjectable(Thing.class));
+        assertFalse(injectomatic.isInjectable(Thing.class));
+
+        injectomatic.register(Marker.class);
+        assertTrue(injectomatic.isInjectable(Thing.class));
+        assertTrue(injectomatic.isInjectable(InjectableThing.class));
+        assertFalse(injectomatic.isInjectable(String.class));
+    }
+
+    @Test
+    public void testListenersSeeTypesWithNothingToInject() {
+        final AtomicInteger heard = new AtomicInteger();
+        SmoothieContainerImpl container = new SmoothieContainerImpl(new AbstractModule()
+        {
+            @Override
+            protected void configure() {
+                bindListener(Matchers.any(), new TypeListener()
+                {
+                    public <I> void hear(final TypeLiteral<I> type, final TypeEncounter<I> encounter) {
+                        encounter.register(new InjectionListener<I>()
+                        {
+                            public void afterInjection(final I injectee) {
+                                heard.incrementAndGet();
+                            }
+                        });
+                    }
+                });
+            }
+        });
+
+        InjectomaticImpl injectomatic = new InjectomaticImpl(container);
+        injectomatic.inject(new InjectableThing());
+        injectomatic.injectAll(Arrays.asList(new InjectableThing(), new InjectableThing()));
+        assertEquals(3, heard.get());
+    }
+
+    public static class Component
+    {
+    }
+
+    public static class InjectedThing
+        implements Injectable
+    {
+        @Inject
+        Component component;
+    }
+
+    @Test
+    public void testInjectAll() {
+        InjectomaticImpl injectomatic = new InjectomaticImpl(Smoothie.getContainer());
+
+        // Undo any injection done by the aspect on construction
+        List<InjectedThing> things = Arrays.asList(new InjectedThing(), new InjectedThing());
+        for (InjectedThing thing : things) {
+            thing.component = null;
+        }
+
+        injectomatic.injectAll(Arrays.asList(things.get(0), "not injectable", things.get(1)));
+        assertNotNull(things.get(0).component);
+        assertNotNull(things.get(1).component);
+    }
+
+    public static class Overloaded
+        implements Injectable
+    {
+        private final String used;
+
+        public Overloaded(final Object value) {
+            used = "object";
+        }
+
+        public Overloaded(final CharSequence value) {
+            used = "chars";
+        }
+
+        public Overloaded(final CharSequence value, final String other) {
+            used = "chars,string";
+        }
+
+        public Overloaded(final String value, final CharSequence other) {
+            used = "string,chars";
+        }
+
+        private Overloaded(final String value) {
+            used = "private";
+        }
+    }
+
+    @Test
+    public void testCreatePicksMostSpecificPublicConstructor() {
+        InjectomaticImpl injectomatic = new InjectomaticImpl(Smoothie.getContainer());
+
+        // The private constructor would be more specific, but isn't considered
+        assertEquals("chars", injectomatic.create(Overloaded.class, "value").used);
+        assertEquals("chars", injectomatic.create(Overloaded.class, new StringBuilder()).used);
+        assertEquals("object", injectomatic.create(Overloaded.class, 1).used);
+        assertEquals("chars,string", injectomatic.create(Overloaded.class, new StringBuilder(), "other").used);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreateAmbiguous() {
+        InjectomaticImpl injectomatic = new InjectomaticImpl(Smoothie.getContainer());
+        injectomatic.create(Overloaded.class, "value", "other");
+    }
+
+    public static class NotInjectable
+    {
+        @Inject
+        Component component;
+    }
+
+    @Test
+    public void testCreateOnlyInjectsInjectableTypes() {
+        InjectomaticImpl injectomatic = new InjectomaticImpl(Smoothie.getContainer());
+        assertFalse(injectomatic.isInjectable(NotInjectable.class));
+        assertNull(injectomatic.create(NotInjectable.class).component);
+        assertNotNull(injectomatic.create(InjectedThing.class).component);
+    }
+
+    public static class Nested
+        implements Injectable
+    {
+        private int injections;
+
+        private final boolean innerInjected;
+
+        public Nested(final Boolean outer) {
+            // Built by the aspect while the outer instance is still being created
+            innerInjected = outer && new Nested(false).injections == 1;
+        }
+
+        @Inject
+        public void setComponent(final Component component) {
+            injections++;
+        }
+    }
+
+    @Test
+    public void testCreateStillInjectsNestedInstancesOfType() {
+        InjectomaticImpl injectomatic = new InjectomaticImpl(Smoothie.getContainer());
+        Nested nested = injectomatic.create(Nested.class, true);
+        assertTrue(nested.innerInjected);
+        assertEquals(1, nested.injections);
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sonatype.matrix.smoothie.injecto.internal;
+
+import com.sonatype.matrix.smoothie.injecto.Injectomatic;
+import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.core.JVM;
+import org.junit.Test;
+
+import java.util.Collection;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+/**
+ * Tests for {@link XStreamInjectoHandler}.
+ */
+public class XStreamInjectoHandlerTest
+{
+    public static class Thing
+    {
+        private transient boolean injected;
+
+        private transient boolean injectedWhenResolved;
+
+        private Object readResolve() {
+            injectedWhenResolved = injected;
+            return this;
+        }
+    }
+
+    /**
+     * Marks {@link Thing} instances as injected.
+     */
+    private static class MarkingInjectomatic
+        implements Injectomatic
+    {
+        public void register(final Class type) {
+            // ignore
+        }
+
+        public boolean isInjectable(final Class type) {
+            return type == Thing.class;
+        }
+
+        public void inject(final Object component) {
+            ((Thing) component).injected = true;
+        }
+
+        public void injectAll(final Collection<?> components) {
+            for (Object component : components) {
+                inject(component);
+            }
+        }
+
+        public <T> T create(final Class<T> type, final Object... args) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    @Test
+    public void testInjectedBeforeReadResolve() {
+        assumeTrue(!XStreamInjectoHandler.DEFERRED);
+
+        XStreamInjectoHandler handler = new XStreamInjectoHandler(new MarkingInjectomatic(), new JVM().bestReflectionProvider());
+        XStream xs = new XStream();
+        handler.register(xs);
+        xs.alias("thing", Thing.class);
+
+        Thing thing = (Thing) xs.fromXML("<thing/>");
+        assertTrue(thing.injected);
+        assertTrue(thing.injectedWhenResolved);
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sonatype.matrix.smoothie.internal;
+
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link ClassCache}.
+ *
+ * @author <a href="mailto:jason@planet57.com">Jason Dillon</a>
+ */
+public class ClassCacheTest
+{
+    private final AtomicInteger computed = new AtomicInteger();
+
+    private final ClassCache<String> cache = new ClassCache<String>()
+    {
+        @Override
+        protected String computeValue(final Class<?> type) {
+            computed.incrementAndGet();
+            return type.getSimpleName();
+        }
+    };
+
+    @Test
+    public void testComputedOnce() {
+        assertEquals("String", cache.get(String.class));
+        assertEquals("String", cache.get(String.class));
+        assertEquals("Integer", cache.get(Integer.class));
+        assertEquals(2, computed.get());
+
+        cache.remove(String.class);
+        assertEquals("String", cache.get(String.class));
+        assertEquals(3, computed.get());
+    }
+
+    @Test
+    public void testClassLoaderNotPinned() throws Exception {
+        URL location = getClass().getProtectionDomain().getCodeSource().getLocation();
+        ClassLoader loader = new URLClassLoader(new URL[] { location }, null);
+        Class<?> type = loader.loadClass(getClass().getName());
+        assertNotSame(getClass(), type);
+        cache.get(type);
+        assertEquals(1, cache.size());
+
+        WeakReference<ClassLoader> ref = new WeakReference<ClassLoader>(loader);
+        loader = null;
+        type = null;
+        for (int i = 0; i < 20 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+
+        assertNull(ref.get());
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sonatype.matrix.smoothie.internal;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.TypeLiteral;
+import org.junit.Test;
+import org.sonatype.guice.bean.locators.QualifiedBean;
+
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link IndexedBeanLocator}.
+ *
+ * @author <a href="mailto:jason@planet57.com">Jason Dillon</a>
+ */
+public class IndexedBeanLocatorTest
+{
+    private static Injector injector(final String value) {
+        return Guice.createInjector(new AbstractModule()
+        {
+            @Override
+            protected void configure() {
+                bind(String.class).toInstance(value);
+            }
+        });
+    }
+
+    private static List<Object> values(final Iterable<? extends QualifiedBean<Annotation,?>> beans) {
+        List<Object> values = new ArrayList<Object>();
+        for (QualifiedBean<Annotation,?> bean : beans) {
+            values.add(bean.getValue());
+        }
+        return values;
+    }
+
+    @Test
+    public void testOnlyMatchingInjectorsIndexed() {
+        IndexedBeanLocator locator = new IndexedBeanLocator();
+        locator.add(injector("a"));
+        locator.add(Guice.createInjector());
+        locator.add(injector("b"));
+
+        assertEquals(2, locator.getInjectorCount(TypeLiteral.get(String.class)));
+        assertEquals(0, locator.getInjectorCount(TypeLiteral.get(Integer.class)));
+    }
+
+    @Test
+    public void testLocateSeesLaterInjectors() {
+        IndexedBeanLocator locator = new IndexedBeanLocator();
+        Injector a = injector("a");
+        locator.add(a);
+
+        Iterable<QualifiedBean<Annotation,String>> beans = locator.locate(Key.get(String.class), null);
+        assertEquals(1, values(beans).size());
+
+        locator.add(injector("b"));
+        List<Object> values = values(beans);
+        assertEquals(2, values.size());
+        assertTrue(values.contains("a"));
+        assertTrue(values.contains("b"));
+
+        locator.remove(a);
+        assertEquals(1, values(beans).size());
+        assertEquals(1, locator.getInjectorCount(TypeLiteral.get(String.class)));
+    }
+}
@@ -0,0 +1,244 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sonatype.matrix.smoothie.internal;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.sonatype.matrix.smoothie.BeanView;
+import com.sonatype.matrix.smoothie.SmoothieUtil;
+import com.sonatype.matrix.smoothie.internal.plugin.PluginClassLoader;
+import hudson.PluginWrapper;
+import org.junit.Test;
+import org.sonatype.guice.bean.locators.QualifiedBean;
+import org.sonatype.inject.EagerSingleton;
+
+import javax.inject.Named;
+import javax.inject.Provider;
+import java.io.File;
+import java.lang.annotation.Annotation;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link SmoothieContainerImpl}.
+ */
+public class SmoothieContainerImplTest
+{
+    public interface Thing
+    {
+    }
+
+    @Named("deferred")
+    public static class DeferredThing
+        implements Thing
+    {
+    }
+
+    @Named("registered")
+    public static class RegisteredThing
+        implements Thing
+    {
+    }
+
+    public static class BoundThing
+        implements Thing
+    {
+    }
+
+    @Named
+    public static class ThingModule
+        extends AbstractModule
+    {
+        @Override
+        protected void configure() {
+            bind(Thing.class).to(BoundThing.class);
+        }
+    }
+
+    @Named("provided")
+    public static class ThingProvider
+        implements Provider<Thing>
+    {
+        public Thing get() {
+            return new BoundThing();
+        }
+    }
+
+    @Named("broken")
+    @EagerSingleton
+    public static class BrokenThing
+        implements Thing
+    {
+        public BrokenThing() {
+            throw new IllegalStateException("broken");
+        }
+    }
+
+    private PluginWrapper createPlugin(final String name, final Class<?>... components) throws Exception {
+        File dir = SmoothieUtil.createComponentDirectory(components);
+        ClassLoader loader = new PluginClassLoader(Collections.singletonList(dir.toURI().toURL()), getClass().getClassLoader());
+        return SmoothieUtil.createPlugin(name, "1.0", loader);
+    }
+
+    @Test
+    public void testRegisterWhileActivating() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            final SmoothieContainerImpl container = new SmoothieContainerImpl();
+            final PluginWrapper deferred = createPlugin("deferred", DeferredThing.class);
+            final PluginWrapper registered = createPlugin("registered", RegisteredThing.class);
+
+            // Read the view first, so registering refreshes it, which activates the deferred plugin
+            BeanView<Annotation,Thing> view = container.view(Key.get(Thing.class));
+            assertTrue(view.getBeans().isEmpty());
+            assertTrue(container.defer(deferred));
+            final Injector injector = container.createInjector(registered);
+
+            final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+            Thread registering = new Thread()
+            {
+                @Override
+                public void run() {
+                    try {
+                        container.register(registered, injector);
+                    }
+                    catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            };
+            Thread activating = new Thread()
+            {
+                @Override
+                public void run() {
+                    try {
+                        container.injector(deferred);
+                    }
+                    catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            };
+            registering.start();
+            activating.start();
+            registering.join(10000);
+            activating.join(10000);
+
+            assertFalse("Deadlocked registering", registering.isAlive());
+            assertFalse("Deadlocked activating", activating.isAlive());
+            assertNull(failure.get());
+            assertEquals(2, view.getBeans().size());
+        }
+    }
+
+    @Test
+    public void testDefer() throws Exception {
+        SmoothieContainerImpl container = new SmoothieContainerImpl();
+        PluginWrapper plugin = createPlugin("deferred", DeferredThing.class);
+
+        assertTrue(container.defer(plugin));
+        assertTrue(container.mayProvide(Thing.class));
+
+        // Locating activates it
+        assertEquals(1, container.view(Key.get(Thing.class)).getBeans().size());
+        assertNotNull(container.injector(plugin));
+    }
+
+    @Test
+    public void testModuleIsNotDeferred() throws Exception {
+        SmoothieContainerImpl container = new SmoothieContainerImpl();
+        PluginWrapper plugin = createPlugin("module", ThingModule.class);
+
+        // The module binds types its own class doesn't tell about
+        assertFalse(container.defer(plugin));
+        assertTrue(container.mayProvide(Thing.class));
+        assertNotNull(container.injector(plugin));
+    }
+
+    @Test
+    public void testProviderIsNotDeferred() throws Exception {
+        SmoothieContainerImpl container = new SmoothieContainerImpl();
+        PluginWrapper plugin = createPlugin("provider", ThingProvider.class);
+
+        assertFalse(container.defer(plugin));
+        assertTrue(container.mayProvide(Thing.class));
+    }
+
+    @Test
+    public void testActivationFailureIsReported() throws Exception {
+        SmoothieContainerImpl container = new SmoothieContainerImpl();
+        PluginWrapper plugin = createPlugin("broken", BrokenThing.class);
+        assertTrue(container.defer(plugin));
+
+        try {
+            container.injector(plugin);
+            fail();
+        }
+        catch (IllegalStateException e) {
+            assertNotNull(e.getCause());
+        }
+
+        // Asking again reports the same failure, rather than an unregistered plugin
+        try {
+            container.injector(plugin);
+            fail();
+        }
+        catch (IllegalStateException e) {
+            assertNotNull(e.getCause());
+        }
+    }
+
+    @Test
+    public void testDeferAfterViewRead() throws Exception {
+        SmoothieContainerImpl container = new SmoothieContainerImpl();
+        BeanView<Annotation,Thing> view = container.view(Key.get(Thing.class));
+        assertTrue(view.getBeans().isEmpty());
+
+        final AtomicInteger invalidated = new AtomicInteger();
+        view.addListener(new BeanView.Listener<Annotation,Thing>()
+        {
+            public void added(final BeanView<Annotation,Thing> view, final List<QualifiedBean<Annotation,Thing>> beans) {
+                // ignore
+            }
+
+            public void invalidated(final BeanView<Annotation,Thing> view) {
+                invalidated.incrementAndGet();
+            }
+        });
+
+        PluginWrapper plugin = createPlugin("deferred", DeferredThing.class);
+        assertTrue(container.defer(plugin));
+        assertEquals(1, invalidated.get());
+
+        // Reading again activates the plugin
+        assertEquals(1, view.getBeans().size());
+        assertTrue(view.getBeans().get(0).getValue() instanceof DeferredThing);
+        assertNotNull(container.injector(plugin));
+    }
+}
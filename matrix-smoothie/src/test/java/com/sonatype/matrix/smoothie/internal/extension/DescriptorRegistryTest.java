@@ -0,0 +1,166 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sonatype.matrix.smoothie.internal.extension;
+
+import com.sonatype.matrix.smoothie.SmoothieUtil;
+import com.sonatype.matrix.smoothie.internal.SmoothieContainerImpl;
+import com.sonatype.matrix.smoothie.internal.plugin.PluginClassLoader;
+import hudson.PluginWrapper;
+import hudson.model.Describable;
+import hudson.model.Descriptor;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.enterprise.inject.Typed;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.io.File;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link DescriptorRegistry}.
+ */
+public class DescriptorRegistryTest
+{
+    public static class Widget
+        implements Describable<Widget>
+    {
+        public Descriptor<Widget> getDescriptor() {
+            return null;
+        }
+    }
+
+    public static class Gadget
+        implements Describable<Gadget>
+    {
+        public Descriptor<Gadget> getDescriptor() {
+            return null;
+        }
+    }
+
+    @Named
+    @Singleton
+    @Typed(Descriptor.class)
+    public static class WidgetDescriptor
+        extends Descriptor<Widget>
+    {
+        public WidgetDescriptor() {
+            super(Widget.class);
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Widget";
+        }
+    }
+
+    @Named
+    @Singleton
+    @Typed(Descriptor.class)
+    public static class GadgetDescriptor
+        extends Descriptor<Gadget>
+    {
+        public GadgetDescriptor() {
+            super(Gadget.class);
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Gadget";
+        }
+    }
+
+    private SmoothieContainerImpl container;
+
+    private DescriptorRegistry registry;
+
+    @Before
+    public void setUp() {
+        container = new SmoothieContainerImpl();
+        registry = new DescriptorRegistry(container);
+    }
+
+    private PluginWrapper createPlugin(final String name, final Class<?>... components) throws Exception {
+        File dir = SmoothieUtil.createComponentDirectory(components);
+        ClassLoader loader = new PluginClassLoader(Collections.singletonList(dir.toURI().toURL()), getClass().getClassLoader());
+        return SmoothieUtil.createPlugin(name, "1.0", loader);
+    }
+
+    private void register(final String name, final Class<?>... components) throws Exception {
+        PluginWrapper plugin = createPlugin(name, components);
+        container.register(plugin, container.createInjector(plugin));
+    }
+
+    @Test
+    public void testFind() throws Exception {
+        register("widgets", WidgetDescriptor.class);
+
+        Descriptor descriptor = registry.find(Widget.class.getName());
+        assertNotNull(descriptor);
+        assertTrue(descriptor instanceof WidgetDescriptor);
+        assertSame(descriptor, registry.find(Widget.class));
+        assertSame(descriptor, registry.findByClassName(Widget.class.getName()));
+        assertNull(registry.find(Gadget.class));
+    }
+
+    @Test
+    public void testAllOfType() throws Exception {
+        register("widgets", WidgetDescriptor.class);
+
+        assertEquals(1, registry.all().size());
+        assertEquals(1, registry.all(Widget.class).size());
+        assertTrue(registry.all(Widget.class).get(0) instanceof WidgetDescriptor);
+        assertTrue(registry.all(Gadget.class).isEmpty());
+    }
+
+    @Test
+    public void testPluginAddedLater() throws Exception {
+        register("widgets", WidgetDescriptor.class);
+        Descriptor widget = registry.find(Widget.class);
+        assertNotNull(widget);
+        assertNull(registry.find(Gadget.class));
+
+        register("gadgets", GadgetDescriptor.class);
+        assertSame(widget, registry.find(Widget.class));
+        assertTrue(registry.find(Gadget.class) instanceof GadgetDescriptor);
+        assertEquals(2, registry.all().size());
+        assertEquals(1, registry.all(Gadget.class).size());
+    }
+
+    @Test
+    public void testPluginDeferredLater() throws Exception {
+        register("widgets", WidgetDescriptor.class);
+        assertNull(registry.find(Gadget.class));
+
+        // Only found once the lookup activates it
+        PluginWrapper gadgets = createPlugin("gadgets", GadgetDescriptor.class);
+        assertTrue(container.defer(gadgets));
+        assertTrue(registry.find(Gadget.class) instanceof GadgetDescriptor);
+        assertNotNull(container.injector(gadgets));
+        assertEquals(2, registry.all().size());
+    }
+}
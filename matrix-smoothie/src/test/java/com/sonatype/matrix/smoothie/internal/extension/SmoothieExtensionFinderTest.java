@@ -0,0 +1,129 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sonatype.matrix.smoothie.internal.extension;
+
+import com.sonatype.matrix.smoothie.Priority;
+import com.sonatype.matrix.smoothie.Smoothie;
+import com.sonatype.matrix.smoothie.TestSupport;
+import hudson.ExtensionComponent;
+import org.junit.Test;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link SmoothieExtensionFinder}.
+ *
+ * @author <a href="mailto:jason@planet57.com">Jason Dillon</a>
+ */
+public class SmoothieExtensionFinderTest
+    extends TestSupport
+{
+    public interface Thing
+    {
+    }
+
+    public interface Nothing
+    {
+    }
+
+    @Named
+    @Singleton
+    public static class ThingImpl
+        implements Thing
+    {
+    }
+
+    @Named
+    @Singleton
+    @Priority(10)
+    public static class ImportantThingImpl
+        implements Thing
+    {
+    }
+
+    @Test
+    public void testRepeatedFindIsCached() {
+        SmoothieExtensionFinder finder = new SmoothieExtensionFinder(Smoothie.getContainer());
+
+        Collection<ExtensionComponent<Thing>> first = finder.find(Thing.class, null);
+        assertEquals(2, first.size());
+        assertSame(first, finder.find(Thing.class, null));
+    }
+
+    @Test
+    public void testOrderedByPriority() {
+        SmoothieExtensionFinder finder = new SmoothieExtensionFinder(Smoothie.getContainer());
+
+        Iterator<ExtensionComponent<Thing>> iter = finder.find(Thing.class, null).iterator();
+        ExtensionComponent<Thing> component = iter.next();
+        assertTrue(component.getInstance() instanceof ImportantThingImpl);
+        assertEquals(10d, component.ordinal(), 0d);
+        assertTrue(iter.next().getInstance() instanceof ThingImpl);
+    }
+
+    @Test
+    public void testComponentsCreatedOnDemand() {
+        SmoothieExtensionFinder finder = new SmoothieExtensionFinder(Smoothie.getContainer());
+
+        for (ExtensionComponent<Thing> component : finder.find(Thing.class, null)) {
+            assertTrue(component instanceof LazySmoothieComponent);
+            LazySmoothieComponent<Thing> lazy = (LazySmoothieComponent<Thing>) component;
+            assertFalse(lazy.isProvisioned());
+            assertFalse(lazy.isDescriptorOf(null));
+            assertFalse(lazy.isProvisioned());
+
+            assertTrue(lazy.getType().isInstance(lazy.getInstance()));
+            assertTrue(lazy.isProvisioned());
+            assertSame(lazy.getInstance(), lazy.getInstance());
+        }
+    }
+
+    @Test
+    public void testFindAllFillsCache() {
+        SmoothieExtensionFinder finder = new SmoothieExtensionFinder(Smoothie.getContainer());
+
+        List<Class<?>> types = Arrays.<Class<?>>asList(Thing.class, Nothing.class);
+        assertEquals(1, finder.findAll(types));
+        assertEquals(0, finder.findAll(types));
+        assertEquals(2, finder.find(Thing.class, null).size());
+    }
+
+    @Test
+    public void testUnboundTypeNotLocated() {
+        SmoothieExtensionFinder finder = new SmoothieExtensionFinder(Smoothie.getContainer());
+
+        assertTrue(finder.find(Nothing.class, null).isEmpty());
+        assertTrue(finder.find(Nothing.class, null).isEmpty());
+        assertEquals(2, finder.getUnboundHits());
+        assertEquals(0, finder.getLocated());
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sonatype.matrix.smoothie.internal.plugin;
+
+import com.sonatype.matrix.smoothie.SmoothieUtil;
+import com.sonatype.matrix.smoothie.internal.space.ClassPathIndex;
+import com.sonatype.matrix.smoothie.internal.space.JarFilePool;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeNotNull;
+
+/**
+ * Measures the class-loading time saved by {@link DelegationHints}.
+ *
+ * Loads every class of matrix-smoothie through a {@link PluginClassLoader}, whose parent holds the rest of the
+ * test classpath, with and without hints.  Only run when {@link SmoothieUtil#BENCHMARKS} is enabled.
+ *
+ * @author <a href="mailto:jason@planet57.com">Jason Dillon</a>
+ */
+public class ParentDelegationBenchmarkTest
+{
+    private static final Logger log = LoggerFactory.getLogger(ParentDelegationBenchmarkTest.class);
+
+    private static final int ROUNDS = 5;
+
+    @Test
+    public void testHintsSkipParent() throws Exception {
+        SmoothieUtil.assumeBenchmarks();
+
+        File classes = new File(PluginClassLoader.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        File testClasses = new File(getClass().getProtectionDomain().getCodeSource().getLocation().toURI());
+        List<String> names = new ArrayList<String>();
+        collect(names, classes, "");
+        assertFalse(names.isEmpty());
+
+        List<URL> parentUrls = new ArrayList<URL>();
+        for (String path : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            File file = new File(path);
+            if (!file.equals(classes) && !file.equals(testClasses)) {
+                parentUrls.add(file.toURI().toURL());
+            }
+        }
+        ClassLoader parent = new URLClassLoader(parentUrls.toArray(new URL[parentUrls.size()]), ClassLoader.getSystemClassLoader().getParent());
+        List<URL> urls = Collections.singletonList(classes.toURI().toURL());
+
+        JarFilePool pool = new JarFilePool(64);
+        ClassPathIndex chain = DelegationHints.indexChain(parent, pool);
+        assumeNotNull(chain);
+        assertTrue(chain.isUsable());
+
+        long plain = 0, hinted = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            PluginClassLoader without = new PluginClassLoader(urls, parent, pool, null);
+            long start = System.nanoTime();
+            int loaded = load(without, names);
+            plain += System.nanoTime() - start;
+
+            PluginClassLoader with = new PluginClassLoader(urls, parent, pool, new DelegationHints(chain, false));
+            start = System.nanoTime();
+            assertEquals(loaded, load(with, names));
+            hinted += System.nanoTime() - start;
+
+            assertTrue(with.getParentSkips() > 0);
+            assertTrue(with.getParentLookups() < without.getParentLookups());
+        }
+
+        log.info("Loaded {} classes {} times: {}ms without hints, {}ms with hints", new Object[] {
+            names.size(), ROUNDS, plain / 1000000, hinted / 1000000
+        });
+    }
+
+    private int load(final PluginClassLoader loader, final List<String> names) {
+        int loaded = 0;
+        for (String name : names) {
+            try {
+                assertSame(loader, loader.loadClass(name).getClassLoader());
+                loaded++;
+            }
+            catch (ClassNotFoundException e) {
+                // ignore
+            }
+            catch (LinkageError e) {
+                // ignore, missing optional dependencies
+            }
+        }
+        return loaded;
+    }
+
+    private void collect(final List<String> names, final File dir, final String prefix) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                collect(names, file, prefix + file.getName() + ".");
+            }
+            else if (file.getName().endsWith(".class")) {
+                names.add(prefix + file.getName().substring(0, file.getName().length() - ".class".length()));
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sonatype.matrix.smoothie.internal.plugin;
+
+import com.sonatype.matrix.smoothie.SmoothieUtil;
+import hudson.model.Hudson;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import static org.junit.Assert.*;
+
+/**
+ * Loads thousands of classes through a {@link PluginClassLoader} from many threads at once.
+ *
+ * @author <a href="mailto:jason@planet57.com">Jason Dillon</a>
+ */
+public class PluginClassLoaderStressTest
+{
+    private static final Logger log = LoggerFactory.getLogger(PluginClassLoaderStressTest.class);
+
+    private static final int MAX_CLASSES = 5000;
+
+    private static final int THREADS = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+    private List<URL> urls;
+
+    private List<String> names;
+
+    @Before
+    public void setUp() throws Exception {
+        File classes = new File(getClass().getProtectionDomain().getCodeSource().getLocation().toURI());
+        urls = new ArrayList<URL>();
+        for (String path : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            File file = new File(path);
+            if (!file.equals(classes)) {
+                urls.add(file.toURI().toURL());
+            }
+        }
+
+        // Classes of hudson-core, as a large plugin would have
+        names = new ArrayList<String>();
+        JarFile jar = new JarFile(new File(Hudson.class.getProtectionDomain().getCodeSource().getLocation().toURI()));
+        try {
+            Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements() && names.size() < MAX_CLASSES) {
+                String name = entries.nextElement().getName();
+                if (name.endsWith(".class")) {
+                    names.add(name.substring(0, name.length() - ".class".length()).replace('/', '.'));
+                }
+            }
+        }
+        finally {
+            jar.close();
+        }
+        assertTrue(names.size() > 1000);
+    }
+
+    private PluginClassLoader createLoader() {
+        // Only the JDK in the parent, so all classes are defined by the plugin loader
+        return new PluginClassLoader(urls, ClassLoader.getSystemClassLoader().getParent());
+    }
+
+    /**
+     * Returns the loaded class, or the name of the error, for each name.
+     */
+    private static Map<String,Object> load(final ClassLoader loader, final List<String> names) {
+        Map<String,Object> result = new HashMap<String,Object>();
+        for (String name : names) {
+            try {
+                result.put(name, loader.loadClass(name));
+            }
+            catch (Throwable e) {
+                result.put(name, e.getClass().getName());
+            }
+        }
+        return result;
+    }
+
+    private List<Map<String,Object>> run(final ClassLoader loader, final List<List<String>> work) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(work.size());
+        try {
+            List<Future<Map<String,Object>>> futures = new ArrayList<Future<Map<String,Object>>>();
+            for (final List<String> names : work) {
+                futures.add(executor.submit(new Callable<Map<String,Object>>()
+                {
+                    public Map<String,Object> call() throws Exception {
+                        return load(loader, names);
+                    }
+                }));
+            }
+
+            List<Map<String,Object>> results = new ArrayList<Map<String,Object>>();
+            for (Future<Map<String,Object>> future : futures) {
+                // Would time out on a deadlock
+                results.add(future.get(5, TimeUnit.MINUTES));
+            }
+            return results;
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testConcurrentLoadsAgree() throws Exception {
+        PluginClassLoader loader = createLoader();
+
+        // All threads load all classes, in different orders
+        List<List<String>> work = new ArrayList<List<String>>();
+        Random random = new Random(42);
+        for (int i = 0; i < THREADS; i++) {
+            List<String> shuffled = new ArrayList<String>(names);
+            Collections.shuffle(shuffled, random);
+            work.add(shuffled);
+        }
+
+        List<Map<String,Object>> results = run(loader, work);
+        Map<String,Object> expected = results.get(0);
+        int loaded = 0;
+        for (String name : names) {
+            Object value = expected.get(name);
+            if (value instanceof Class) {
+                assertSame(loader, ((Class) value).getClassLoader());
+                loaded++;
+            }
+            // Class equality is identity
+            for (Map<String,Object> result : results) {
+                assertEquals(name, value, result.get(name));
+            }
+        }
+
+        log.info("Loaded {} of {} classes from {} threads", new Object[] { loaded, names.size(), THREADS });
+        assertTrue(loaded > 1000);
+    }
+
+    @Test
+    public void testThroughput() throws Exception {
+        SmoothieUtil.assumeBenchmarks();
+
+        // Serial baseline
+        long start = System.nanoTime();
+        run(createLoader(), Collections.singletonList(names));
+        long serial = System.nanoTime() - start;
+
+        // Same classes, split between threads
+        List<List<String>> work = new ArrayList<List<String>>();
+        for (int i = 0; i < THREADS; i++) {
+            work.add(new ArrayList<String>());
+        }
+        for (int i = 0; i < names.size(); i++) {
+            work.get(i % THREADS).add(names.get(i));
+        }
+        start = System.nanoTime();
+        run(createLoader(), work);
+        long parallel = System.nanoTime() - start;
+
+        // Only logged, asserting a speedup would be too sensitive to the build machine
+        log.info("Loaded {} classes in {}ms with 1 thread, {}ms with {} threads ({}x)", new Object[] {
+            names.size(),
+            TimeUnit.NANOSECONDS.toMillis(serial),
+            TimeUnit.NANOSECONDS.toMillis(parallel),
+            THREADS,
+            String.format("%.1f", (double) serial / parallel)
+        });
+    }
+}
@@ -0,0 +1,231 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sonatype.matrix.smoothie.internal.plugin;
+
+import com.sonatype.matrix.smoothie.internal.space.ClassPathIndex;
+import com.sonatype.matrix.smoothie.internal.space.JarFilePool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeNotNull;
+
+/**
+ * Tests for {@link PluginClassLoader}.
+ *
+ * @author <a href="mailto:jason@planet57.com">Jason Dillon</a>
+ */
+public class PluginClassLoaderTest
+{
+    private static final String CLASS_PATH = PluginClassLoaderTest.class.getName().replace('.', '/') + ".class";
+
+    private List<File> files = new ArrayList<File>();
+
+    @Before
+    public void setUp() throws Exception {
+        files.add(jar("empty", "META-INF/none.txt"));
+        files.add(jar("classes", CLASS_PATH, "META-INF/shared.txt"));
+        files.add(jar("other", "META-INF/shared.txt"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    private File jar(final String name, final String... entries) throws Exception {
+        File file = File.createTempFile(name, ".jar");
+        JarOutputStream output = new JarOutputStream(new FileOutputStream(file));
+        try {
+            for (String entry : entries) {
+                output.putNextEntry(new JarEntry(entry));
+                if (entry.endsWith(".class")) {
+                    InputStream input = getClass().getClassLoader().getResourceAsStream(entry);
+                    try {
+                        byte[] buff = new byte[4096];
+                        int n;
+                        while ((n = input.read(buff)) != -1) {
+                            output.write(buff, 0, n);
+                        }
+                    }
+                    finally {
+                        input.close();
+                    }
+                }
+                else {
+                    output.write(name.getBytes("UTF-8"));
+                }
+                output.closeEntry();
+            }
+        }
+        finally {
+            output.close();
+        }
+        return file;
+    }
+
+    private List<URL> urls() throws Exception {
+        List<URL> urls = new ArrayList<URL>();
+        for (File file : files) {
+            urls.add(file.toURI().toURL());
+        }
+        return urls;
+    }
+
+    private PluginClassLoader createLoader() throws Exception {
+        return new PluginClassLoader(urls(), getClass().getClassLoader());
+    }
+
+    @Test
+    public void testFindClassFromIndex() throws Exception {
+        PluginClassLoader loader = createLoader();
+        assertTrue(loader.getIndex().isUsable());
+
+        Class<?> type = loader.findClass(PluginClassLoaderTest.class.getName());
+        assertSame(loader, type.getClassLoader());
+        assertEquals(files.get(1).toURI().toURL(), type.getProtectionDomain().getCodeSource().getLocation());
+        assertNotNull(type.getPackage());
+    }
+
+    @Test(expected=ClassNotFoundException.class)
+    public void testMissingClass() throws Exception {
+        createLoader().findClass("not.a.Class");
+    }
+
+    @Test
+    public void testFindResources() throws Exception {
+        PluginClassLoader loader = createLoader();
+        assertNull(loader.findResource("META-INF/missing.txt"));
+        assertTrue(loader.findResource("META-INF/shared.txt").toString().contains(files.get(1).getName()));
+        assertEquals(2, Collections.list(loader.findResources("META-INF/shared.txt")).size());
+    }
+
+    @Test
+    public void testResourceStreamedFromPool() throws Exception {
+        JarFilePool pool = new JarFilePool(1);
+        PluginClassLoader loader = new PluginClassLoader(urls(), getClass().getClassLoader(), pool, null);
+
+        InputStream input = loader.getResourceAsStream("META-INF/shared.txt");
+        assertNotNull(input);
+
+        // evicts the jar being streamed from, which must stay open until the stream is closed
+        loader.getIndex().sourceOf("META-INF/none.txt").getManifest();
+        assertTrue(pool.getEvictions() > 0);
+        byte[] buff = new byte[64];
+        assertEquals("classes", new String(buff, 0, input.read(buff), "UTF-8"));
+        input.close();
+        input.close();
+
+        assertNull(loader.getResourceAsStream("META-INF/missing.txt"));
+    }
+
+    @Test
+    public void testFindEntries() throws Exception {
+        PluginClassLoader loader = createLoader();
+        assertEquals(1, loader.getIndex().findEntries(null, "*.class", true, null).size());
+        assertEquals(3, loader.getIndex().findEntries("META-INF", "*.txt", false, null).size());
+        assertEquals(0, loader.getIndex().findEntries("META-INF", "*.class", false, null).size());
+    }
+
+    @Test
+    public void testParentMissRemembered() throws Exception {
+        PluginClassLoader loader = createLoader();
+        for (int i = 0; i < 2; i++) {
+            try {
+                loader.loadClass("not.a.Class");
+                fail();
+            }
+            catch (ClassNotFoundException e) {
+                // expected
+            }
+        }
+        assertEquals(1, loader.getParentLookups());
+        assertEquals(1, loader.getParentSkips());
+    }
+
+    private static void assertMissing(final ClassLoader loader, final String name) {
+        try {
+            loader.loadClass(name);
+            fail();
+        }
+        catch (ClassNotFoundException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testParentMissesForgetLeastRecentlyUsed() throws Exception {
+        PluginClassLoader loader = createLoader();
+        assertMissing(loader, "not.a.Class");
+        for (int i = 0; i < PluginClassLoader.PARENT_MISSES; i++) {
+            assertMissing(loader, "not.a.Class" + i);
+            // keep the first miss recently used
+            assertMissing(loader, "not.a.Class");
+        }
+
+        long lookups = loader.getParentLookups();
+        assertMissing(loader, "not.a.Class");
+        assertEquals(lookups, loader.getParentLookups());
+
+        assertMissing(loader, "not.a.Class0");
+        assertEquals(lookups + 1, loader.getParentLookups());
+    }
+
+    @Test
+    public void testHintsKeepParentFirstForSplitPackages() throws Exception {
+        JarFilePool pool = new JarFilePool(16);
+        ClassPathIndex chain = DelegationHints.indexChain(getClass().getClassLoader(), pool);
+        assumeNotNull(chain);
+
+        PluginClassLoader loader = new PluginClassLoader(urls(), getClass().getClassLoader(), pool, new DelegationHints(chain, false));
+
+        // Also in the plugin, but the parent has it so it must win
+        assertSame(PluginClassLoaderTest.class, loader.loadClass(PluginClassLoaderTest.class.getName()));
+        assertSame(Test.class, loader.loadClass(Test.class.getName()));
+        assertEquals(0, loader.getParentSkips());
+
+        try {
+            loader.loadClass(PluginClassLoaderTest.class.getPackage().getName() + ".NotAClass");
+            fail();
+        }
+        catch (ClassNotFoundException e) {
+            // expected
+        }
+        assertEquals(1, loader.getParentSkips());
+    }
+}
@@ -0,0 +1,220 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sonatype.matrix.smoothie.internal.plugin;
+
+import com.sonatype.matrix.smoothie.SmoothieUtil;
+import com.sonatype.matrix.smoothie.internal.SmoothieContainerImpl;
+import hudson.PluginWrapper;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.inject.Named;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+/**
+ * Tests for {@link PluginRegistrar}.
+ */
+public class PluginRegistrarTest
+{
+    @Named
+    public static class Component
+    {
+    }
+
+    private SmoothieContainerImpl container;
+
+    private PluginRegistrar registrar;
+
+    @Before
+    public void setUp() {
+        assumeTrue(PluginRegistrar.PARALLEL && PluginRegistrar.THREADS >= 2);
+        container = new SmoothieContainerImpl();
+        registrar = new PluginRegistrar(container);
+    }
+
+    private PluginWrapper prepare(final String name, final String... dependencies) throws Exception {
+        File dir = SmoothieUtil.createComponentDirectory(Component.class);
+        ClassLoader loader = new PluginClassLoader(Collections.singletonList(dir.toURI().toURL()), getClass().getClassLoader());
+        PluginWrapper.Dependency[] deps = new PluginWrapper.Dependency[dependencies.length];
+        for (int i = 0; i < deps.length; i++) {
+            deps[i] = new PluginWrapper.Dependency(dependencies[i] + ":1.0");
+        }
+        PluginWrapper plugin = SmoothieUtil.createPlugin(name, "1.0", loader, deps);
+        registrar.prepare(plugin);
+        return plugin;
+    }
+
+    private static List<String> names(final List<PluginWrapper> plugins) {
+        List<String> names = new ArrayList<String>();
+        for (PluginWrapper plugin : plugins) {
+            names.add(plugin.getShortName());
+        }
+        return names;
+    }
+
+    @Test
+    public void testDependenciesScheduledFirst() throws Exception {
+        prepare("c", "b", "a");
+        prepare("b", "a");
+        prepare("a");
+        prepare("d");
+
+        List<String> order = names(registrar.getScheduled());
+        assertEquals(4, order.size());
+        assertTrue(order.indexOf("a") < order.indexOf("b"));
+        assertTrue(order.indexOf("b") < order.indexOf("c"));
+    }
+
+    @Test
+    public void testUnorderablePluginsNotScheduled() throws Exception {
+        prepare("missing", "absent");
+        prepare("dependent", "missing");
+        prepare("one", "two");
+        prepare("two", "one");
+        prepare("fine");
+
+        assertEquals(Collections.singletonList("fine"), names(registrar.getScheduled()));
+    }
+
+    @Test
+    public void testOnlyLoadedPluginsRegistered() throws Exception {
+        PluginWrapper a = prepare("a");
+        PluginWrapper refused = prepare("refused");
+        registrar.awaitStarted();
+
+        // Injectors are built ahead, but only added to the container when Hudson loads the plugin
+        try {
+            container.injector(a);
+            fail();
+        }
+        catch (IllegalStateException e) {
+            // expected
+        }
+
+        registrar.register(a);
+        assertNotNull(container.injector(a));
+        try {
+            container.injector(refused);
+            fail();
+        }
+        catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testDependentsStartedOnceDependenciesRegistered() throws Exception {
+        PluginWrapper a = prepare("a");
+        PluginWrapper b = prepare("b", "a");
+        registrar.awaitStarted();
+
+        assertTrue(registrar.isStarted(a));
+        assertFalse(registrar.isStarted(b));
+
+        registrar.register(a);
+        registrar.awaitStarted();
+        assertTrue(registrar.isStarted(b));
+
+        registrar.register(b);
+        assertNotNull(container.injector(b));
+        assertTrue(registrar.getScheduled().isEmpty());
+    }
+
+    @Test
+    public void testDependentLoadedFirstIsBuiltInline() throws Exception {
+        PluginWrapper a = prepare("a");
+        PluginWrapper b = prepare("b", "a");
+
+        // Hudson does not load plugins in dependency order
+        registrar.register(b);
+        assertNotNull(container.injector(b));
+
+        registrar.register(a);
+        assertNotNull(container.injector(a));
+        assertTrue(registrar.getScheduled().isEmpty());
+    }
+
+    @Test
+    public void testFailedPluginDropsDependents() throws Exception {
+        PluginWrapper a = prepare("a");
+        prepare("b", "a");
+        prepare("c", "b");
+        PluginWrapper d = prepare("d");
+
+        registrar.register(a);
+        registrar.failed(a);
+        assertEquals(Collections.singletonList("d"), names(registrar.getScheduled()));
+
+        registrar.register(d);
+        assertTrue(registrar.getScheduled().isEmpty());
+    }
+
+    @Test
+    public void testWhenLoadedRunsOnceAllPluginsLoaded() throws Exception {
+        PluginWrapper a = prepare("a");
+        PluginWrapper b = prepare("b", "a");
+        PluginWrapper c = prepare("c");
+        prepare("d", "c");
+
+        final AtomicInteger count = new AtomicInteger();
+        Runnable task = new Runnable()
+        {
+            public void run() {
+                count.incrementAndGet();
+            }
+        };
+        registrar.whenLoaded(task);
+
+        registrar.register(a);
+        registrar.register(b);
+        assertEquals(0, count.get());
+
+        // Hudson refuses to load d once c failed
+        registrar.failed(c);
+        assertEquals(1, count.get());
+
+        registrar.whenLoaded(task);
+        assertEquals(2, count.get());
+    }
+
+    @Test
+    public void testUnscheduledPluginRegisteredSerially() throws Exception {
+        prepare("a");
+        registrar.getScheduled();
+
+        File dir = SmoothieUtil.createComponentDirectory(Component.class);
+        ClassLoader loader = new PluginClassLoader(Collections.singletonList(dir.toURI().toURL()), getClass().getClassLoader());
+        PluginWrapper late = SmoothieUtil.createPlugin("late", "1.0", loader);
+        registrar.register(late);
+        assertNotNull(container.injector(late));
+    }
+}
@@ -0,0 +1,214 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sonatype.matrix.smoothie.internal.plugin;
+
+import com.sonatype.matrix.smoothie.internal.space.JarFilePool;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.inject.Named;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link SharedLibraries}.
+ *
+ * @author <a href="mailto:jason@planet57.com">Jason Dillon</a>
+ */
+public class SharedLibrariesTest
+{
+    private static final String CLASS_NAME = SharedLibrariesTest.class.getName();
+
+    private static final ClassLoader JDK = ClassLoader.getSystemClassLoader().getParent();
+
+    private final JarFilePool pool = new JarFilePool(16);
+
+    private final List<File> files = new ArrayList<File>();
+
+    @After
+    public void tearDown() throws Exception {
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    /**
+     * Creates a jar containing this class, and an extra entry to vary its content.
+     */
+    private File jar(final String name, final String extra) throws Exception {
+        return jar(name, extra, SharedLibrariesTest.class);
+    }
+
+    private File jar(final String name, final String extra, final Class<?>... types) throws Exception {
+        File file = File.createTempFile(name, ".jar");
+        files.add(file);
+        JarOutputStream output = new JarOutputStream(new FileOutputStream(file));
+        try {
+            for (Class<?> type : types) {
+                String path = type.getName().replace('.', '/') + ".class";
+                output.putNextEntry(new JarEntry(path));
+                InputStream input = getClass().getClassLoader().getResourceAsStream(path);
+                try {
+                    byte[] buff = new byte[4096];
+                    int n;
+                    while ((n = input.read(buff)) != -1) {
+                        output.write(buff, 0, n);
+                    }
+                }
+                finally {
+                    input.close();
+                }
+                output.closeEntry();
+            }
+            output.putNextEntry(new JarEntry(extra));
+            output.closeEntry();
+        }
+        finally {
+            output.close();
+        }
+        return file;
+    }
+
+    private PluginClassLoader createLoader(final SharedLibraries libraries, final File... jars) throws Exception {
+        List<File> classpath = Arrays.asList(jars);
+        SharedLibraries.View view = libraries.share(classpath, JDK, JDK);
+        List<URL> urls = new ArrayList<URL>();
+        for (File file : classpath) {
+            urls.add(file.toURI().toURL());
+        }
+        return new PluginClassLoader(urls, JDK, pool, null, view);
+    }
+
+    @Test
+    public void testIdenticalJarsShared() throws Exception {
+        SharedLibraries libraries = new SharedLibraries(pool, true, "");
+        PluginClassLoader one = createLoader(libraries, jar("one", "same.txt"));
+        PluginClassLoader two = createLoader(libraries, jar("two", "same.txt"));
+
+        Class<?> type = one.loadClass(CLASS_NAME);
+        assertSame(type, two.loadClass(CLASS_NAME));
+        assertNotSame(one, type.getClassLoader());
+        assertNotNull(two.getResource("same.txt"));
+        assertEquals(1, libraries.getSharedCount());
+        assertEquals(1, libraries.getDuplicates());
+    }
+
+    @Test
+    public void testSharedJarsStayOnClasspath() throws Exception {
+        SharedLibraries libraries = new SharedLibraries(pool, true, "");
+        File jar = jar("one", "same.txt");
+        PluginClassLoader one = createLoader(libraries, jar);
+
+        assertEquals(1, libraries.getSharedCount());
+        assertEquals(Collections.singletonList(jar.toURI().toURL()), Arrays.asList(one.getURLs()));
+        assertNotNull(one.getIndex().sourceOf(CLASS_NAME.replace('.', '/') + ".class"));
+        assertEquals(1, Collections.list(one.getResources("same.txt")).size());
+    }
+
+    public static class Dependency
+    {
+    }
+
+    public static class Library
+    {
+        public Dependency dependency;
+    }
+
+    @Test
+    public void testJarLinkingAgainstPrivateJarStaysPrivate() throws Exception {
+        SharedLibraries libraries = new SharedLibraries(pool, true, "private*.jar");
+        PluginClassLoader one = createLoader(libraries, jar("library", "library.txt", Library.class), jar("private", "private.txt", Dependency.class));
+
+        assertEquals(0, libraries.getSharedCount());
+        Class<?> type = one.loadClass(Library.class.getName());
+        assertSame(one, type.getClassLoader());
+        assertSame(one, type.getField("dependency").getType().getClassLoader());
+    }
+
+    @Test
+    public void testJarLinkingAgainstSharedJarIsShared() throws Exception {
+        SharedLibraries libraries = new SharedLibraries(pool, true, "");
+        PluginClassLoader one = createLoader(libraries, jar("library", "library.txt", Library.class), jar("dependency", "dependency.txt", Dependency.class));
+
+        assertEquals(2, libraries.getSharedCount());
+        Class<?> type = one.loadClass(Library.class.getName());
+        assertNotSame(one, type.getClassLoader());
+        assertSame(type.getClassLoader(), type.getField("dependency").getType().getClassLoader());
+    }
+
+    @Named
+    public static class Component
+    {
+    }
+
+    @Test
+    public void testJarWithComponentsStaysPrivate() throws Exception {
+        SharedLibraries libraries = new SharedLibraries(pool, true, "");
+        PluginClassLoader one = createLoader(libraries, jar("component", "component.txt", Component.class));
+
+        // Components need the injector of their plugin
+        assertEquals(0, libraries.getSharedCount());
+        assertSame(one, one.loadClass(Component.class.getName()).getClassLoader());
+    }
+
+    @Test
+    public void testConflictingJarsStayPrivate() throws Exception {
+        SharedLibraries libraries = new SharedLibraries(pool, true, "");
+        PluginClassLoader one = createLoader(libraries, jar("one", "one.txt"));
+        PluginClassLoader two = createLoader(libraries, jar("two", "two.txt"));
+
+        assertNotSame(one.loadClass(CLASS_NAME), two.loadClass(CLASS_NAME));
+        assertSame(two, two.loadClass(CLASS_NAME).getClassLoader());
+        assertNull(two.getResource("one.txt"));
+        assertEquals(1, libraries.getSharedCount());
+    }
+
+    @Test
+    public void testExcludedJarsStayPrivate() throws Exception {
+        SharedLibraries libraries = new SharedLibraries(pool, true, "isolated*.jar");
+        PluginClassLoader one = createLoader(libraries, jar("isolated", "same.txt"));
+
+        assertSame(one, one.loadClass(CLASS_NAME).getClassLoader());
+        assertEquals(0, libraries.getSharedCount());
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        SharedLibraries libraries = new SharedLibraries(pool, false, "");
+        File jar = jar("one", "same.txt");
+        assertNull(libraries.share(Collections.singletonList(jar), JDK, JDK));
+        assertEquals(0, libraries.getSharedCount());
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sonatype.matrix.smoothie.internal.space;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link ScanCache.Fingerprint}.
+ *
+ * @author <a href="mailto:jason@planet57.com">Jason Dillon</a>
+ */
+public class FingerprintTest
+{
+    @Test
+    public void testParseRendered() throws Exception {
+        ScanCache.Fingerprint fingerprint = new ScanCache.Fingerprint("/some|odd/path.jar", 1234, 5678, "cafebabe");
+        assertEquals(fingerprint, ScanCache.Fingerprint.parse(fingerprint.toString()));
+    }
+
+    @Test
+    public void testContentChangeDetected() throws Exception {
+        File file = File.createTempFile("fingerprint", ".jar");
+        file.deleteOnExit();
+        write(file, "one");
+        long modified = file.lastModified();
+        ScanCache.Fingerprint stored = ScanCache.Fingerprint.parse(ScanCache.Fingerprint.of(file).toString());
+        assertTrue(ScanCache.Fingerprint.of(file).matches(stored, modified));
+
+        // Same size and timestamp, different content; only told apart by hashing
+        write(file, "two");
+        assertTrue(file.setLastModified(modified));
+        assertFalse(ScanCache.Fingerprint.of(file).matches(stored, modified));
+    }
+
+    @Test
+    public void testUnchangedNotHashed() throws Exception {
+        File file = File.createTempFile("fingerprint", ".jar");
+        file.deleteOnExit();
+        write(file, "one");
+        ScanCache.Fingerprint stored = ScanCache.Fingerprint.parse(ScanCache.Fingerprint.of(file).toString());
+
+        // Cache entry written well after the file was last modified
+        long cached = file.lastModified() + 10 * ScanCache.Fingerprint.MODIFIED_RESOLUTION;
+        ScanCache.Fingerprint current = ScanCache.Fingerprint.of(file);
+        assertTrue(current.matches(stored, cached));
+        assertFalse(current.isHashed());
+
+        // Size changed; stale without hashing
+        write(file, "three");
+        current = ScanCache.Fingerprint.of(file);
+        assertFalse(current.matches(stored, cached));
+        assertFalse(current.isHashed());
+    }
+
+    private void write(final File file, final String content) throws Exception {
+        OutputStream output = new FileOutputStream(file);
+        try {
+            output.write(content.getBytes("UTF-8"));
+        }
+        finally {
+            output.close();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sonatype.matrix.smoothie.internal.space;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link JarFilePool}.
+ *
+ * @author <a href="mailto:jason@planet57.com">Jason Dillon</a>
+ */
+public class JarFilePoolTest
+{
+    private File one;
+
+    private File two;
+
+    @Before
+    public void setUp() throws Exception {
+        one = jar("one");
+        two = jar("two");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        one.delete();
+        two.delete();
+    }
+
+    private File jar(final String name) throws Exception {
+        File file = File.createTempFile(name, ".jar");
+        JarOutputStream output = new JarOutputStream(new FileOutputStream(file));
+        try {
+            output.putNextEntry(new JarEntry(name + ".txt"));
+            output.write(name.getBytes("UTF-8"));
+            output.closeEntry();
+        }
+        finally {
+            output.close();
+        }
+        return file;
+    }
+
+    @Test
+    public void testHitsAndMisses() throws Exception {
+        JarFilePool pool = new JarFilePool(2);
+        pool.acquire(one).release();
+        pool.acquire(one).release();
+        pool.acquire(two).release();
+
+        assertEquals(2, pool.getMisses());
+        assertEquals(1, pool.getHits());
+        assertEquals(0, pool.getEvictions());
+        assertEquals(2, pool.getOpen());
+    }
+
+    @Test
+    public void testEvictedHandleUsableUntilReleased() throws Exception {
+        JarFilePool pool = new JarFilePool(1);
+        JarFilePool.Handle handle = pool.acquire(one);
+
+        // evicts the borrowed handle, which must stay open
+        pool.acquire(two).release();
+        assertEquals(1, pool.getEvictions());
+        assertNotNull(handle.getJarFile().getEntry("one.txt"));
+        handle.release();
+
+        // transparently reopened
+        JarFilePool.Handle reopened = pool.acquire(one);
+        assertNotSame(handle, reopened);
+        assertNotNull(reopened.getJarFile().getEntry("one.txt"));
+        reopened.release();
+        assertEquals(3, pool.getMisses());
+    }
+}
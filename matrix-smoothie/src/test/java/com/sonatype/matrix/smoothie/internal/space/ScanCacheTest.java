@@ -0,0 +1,138 @@
+/**
+ * The MIT License
+ *
+ * Copyright (c) 2010 Sonatype, Inc. All rights reserved.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.sonatype.matrix.smoothie.internal.space;
+
+import com.sonatype.matrix.smoothie.SmoothieUtil;
+import hudson.PluginWrapper;
+import org.junit.Before;
+import org.junit.Test;
+import org.sonatype.guice.bean.reflect.ClassSpace;
+import org.sonatype.guice.bean.reflect.URLClassSpace;
+
+import javax.inject.Named;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link ScanCache}.
+ */
+public class ScanCacheTest
+{
+    @Named
+    public static class Component
+    {
+    }
+
+    private ScanCache cache;
+
+    private File directory;
+
+    private URLClassLoader loader;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = SmoothieUtil.createTempDirectory("smoothie-scan-cache");
+        assertTrue(directory.delete());
+        cache = new ScanCache(directory);
+
+        File classes = SmoothieUtil.createComponentDirectory(Component.class);
+        loader = new URLClassLoader(new URL[] { classes.toURI().toURL() }, getClass().getClassLoader());
+    }
+
+    private ClassSpace lookup(final PluginWrapper plugin) {
+        return cache.lookup(plugin, loader, new URLClassSpace(loader, loader.getURLs()));
+    }
+
+    /**
+     * Scans the plugin, as the space module would, and stores the result.
+     */
+    private void scan(final PluginWrapper plugin) {
+        ClassSpace space = lookup(plugin);
+        assertTrue(space instanceof RecordingClassSpace);
+        space.loadClass(Component.class.getName());
+        cache.store(plugin, space);
+    }
+
+    @Test
+    public void testReplayed() throws Exception {
+        PluginWrapper plugin = SmoothieUtil.createPlugin("test", "1.0", loader);
+        scan(plugin);
+
+        ClassSpace space = lookup(plugin);
+        assertTrue(space instanceof IndexedClassSpace);
+        assertEquals(Collections.singleton(Component.class.getName()), ((IndexedClassSpace) space).getNames());
+    }
+
+    @Test
+    public void testNewVersionRescanned() throws Exception {
+        scan(SmoothieUtil.createPlugin("test", "1.0", loader));
+
+        assertTrue(lookup(SmoothieUtil.createPlugin("test", "1.1", loader)) instanceof RecordingClassSpace);
+    }
+
+    @Test
+    public void testChangedClasspathRescanned() throws Exception {
+        PluginWrapper plugin = SmoothieUtil.createPlugin("test", "1.0", loader);
+        scan(plugin);
+
+        File classes = new File(loader.getURLs()[0].toURI());
+        write(new File(classes, "added.txt"), "added");
+        assertTrue(lookup(plugin) instanceof RecordingClassSpace);
+    }
+
+    @Test
+    public void testCorruptCacheRescanned() throws Exception {
+        PluginWrapper plugin = SmoothieUtil.createPlugin("test", "1.0", loader);
+        scan(plugin);
+
+        File file = new File(directory, "test.idx");
+        assertTrue(file.isFile());
+        write(file, "smoothie-scan-cache:1\n1.0\nS garbage\n");
+        assertTrue(lookup(plugin) instanceof RecordingClassSpace);
+
+        write(file, "garbage");
+        assertTrue(lookup(plugin) instanceof RecordingClassSpace);
+
+        // And recovers with the next scan
+        scan(plugin);
+        assertTrue(lookup(plugin) instanceof IndexedClassSpace);
+    }
+
+    private void write(final File file, final String content) throws Exception {
+        OutputStream output = new FileOutputStream(file);
+        try {
+            output.write(content.getBytes("UTF-8"));
+        }
+        finally {
+            output.close();
+        }
+    }
+}